@@ -1,10 +1,17 @@
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -20,7 +27,6 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevisionSyntaxException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.patch.FileHeader;
@@ -35,6 +41,10 @@ import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParseException;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.Providers;
 import com.github.javaparser.ast.*;
 import com.github.javaparser.ast.body.*;
 import com.github.javaparser.ast.comments.*;
@@ -58,7 +68,36 @@ public class AssertExperiment {
 			"file:///Users/djp/projects/Whiley/"
 			};
 
-	private static class Results {
+	/**
+	 * The number of worker threads used for parsing source files. Each worker
+	 * has its own JavaParser instance.
+	 */
+	static int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Counts the number of source files parsed (or scanned by MethodScanner)
+	 * by any experiment, along with the total time spent doing so across all
+	 * threads. Together, these give the parsing throughput independently of
+	 * the other work an experiment does.
+	 */
+	static final AtomicLong parses = new AtomicLong();
+	static final AtomicLong parseNanos = new AtomicLong();
+
+	/**
+	 * The number of methods, and methods of interest, in one or more source
+	 * files.
+	 */
+	static class Counts {
+		public final int methods;
+		public final int methodsOfInterest;
+
+		public Counts(int methods, int methodsOfInterest) {
+			this.methods = methods;
+			this.methodsOfInterest = methodsOfInterest;
+		}
+	}
+
+	static class Results {
 		/**
 		 * Counts the total number of commits processed.
 		 */
@@ -92,26 +131,19 @@ public class AssertExperiment {
 	}
 
 	public static void main(String[] args) {
+		BlobStore.configure();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
 		try {
 			Results results = new Results();
 			for (String repo : repositories) {
 				long start = System.currentTimeMillis();
 				System.out.println("Cloning repository " + repo + " ... ");
 				Git git = cloneGitRepository(repo);
-				System.out.println("Extracting commits from " + repo + " ... ");
-				List<RevCommit> fixes = extractBugFixCommits(git,results);
-				System.out.println("Classifying commits from " + repo + " ... ");
-				classifyCommits(fixes, git, results);
-				System.out.println("Classifing all methods from " + repo + " ... ");
-				List<MethodDeclaration> methods = extractMethods(git);
-				for(MethodDeclaration method : methods) {
-					if(isOfInterest(method)) {
-						results.methodsOfInterest++;
-					}
-					results.methods++;
-				}
+				CommitClassifier classifier = runExperiment(repo, git, executor, results);
 				long end = System.currentTimeMillis();
 				System.out.println("Finished " + repo + " (" + (end - start) + "ms)");
+				System.out.println("Object access: " + BlobStore.of(git.getRepository()).getStatistics());
+				classifier.report();
 			}
 			System.out.println("Found " + results.commits + " commit(s)");
 			System.out.println("Found " + results.fixCommits + " fix commit(s)");
@@ -124,10 +156,47 @@ public class AssertExperiment {
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Run the experiment on a single repository, accumulating into a given set
+	 * of results.
+	 *
+	 * @param repo
+	 *            The name of the repository, used for reporting progress.
+	 * @param git
+	 * @param executor
+	 *            Used for parsing the source files at HEAD.
+	 * @param results
+	 * @return The classifier used for identifying fix commits.
+	 * @throws IOException
+	 * @throws GitAPIException
+	 */
+	static CommitClassifier runExperiment(String repo, Git git, ExecutorService executor, Results results)
+			throws IOException, GitAPIException {
+		// The HEAD scan is independent of the commit history, so start
+		// it now and let it run alongside the history phase.
+		System.out.println("Classifing all methods from " + repo + " (in background) ... ");
+		CompletableFuture<Counts> scan = countMethods(git, executor);
+		System.out.println("Extracting commits from " + repo + " ... ");
+		CommitClassifier classifier = CommitClassifier.load(git.getRepository());
+		try {
+			List<RevCommit> fixes = extractBugFixCommits(git, classifier, results);
+			System.out.println("Classifying commits from " + repo + " ... ");
+			classifyCommits(fixes, git, results);
+		} finally {
+			classifier.close();
 		}
+		Counts counts = scan.join();
+		results.methods += counts.methods;
+		results.methodsOfInterest += counts.methodsOfInterest;
+		return classifier;
 	}
 
-	private static double ratio(int numerator, int denominator) {
+	static double ratio(int numerator, int denominator) {
 		double ratio = 10000 * ((double)numerator) / (double) denominator;
 		return Math.round(ratio) / 100d;
 	}
@@ -145,7 +214,7 @@ public class AssertExperiment {
 	 * @throws TransportException
 	 * @throws GitAPIException
 	 */
-	private static Git cloneGitRepository(String URI)
+	static Git cloneGitRepository(String URI)
 			throws IOException, InvalidRemoteException, TransportException, GitAPIException {
 		// Create a new temporary directory
 		File tmpdir = File.createTempFile("tmp", "");
@@ -159,21 +228,24 @@ public class AssertExperiment {
 
 	/**
 	 * Traverse all commits in this repository and extract those which are
-	 * considered to be "bug fixes". These are commits with the word "fix" in
-	 * their short message.
+	 * considered to be "bug fixes" by a given classifier. By default, these are
+	 * commits with the word "fix" in their short message.
 	 *
 	 * @param git
+	 * @param classifier
 	 * @param log
 	 * @throws NoHeadException
 	 * @throws GitAPIException
+	 * @throws IOException
 	 */
-	public static List<RevCommit> extractBugFixCommits(Git git, Results results) throws NoHeadException, GitAPIException {
+	public static List<RevCommit> extractBugFixCommits(Git git, CommitClassifier classifier, Results results)
+			throws NoHeadException, GitAPIException, IOException {
 		// Get the log of all commits
 		Iterable<RevCommit> revlog = git.log().call();
 		// Iterate and classify each commit
 		ArrayList<RevCommit> commits = new ArrayList<>();
 		for (RevCommit rc : revlog) {
-			if (isBugFixCommit(rc)) {
+			if (classifier.classify(rc)) {
 				commits.add(rc);
 				results.fixCommits++;
 			} else {
@@ -184,23 +256,14 @@ public class AssertExperiment {
 		return commits;
 	}
 
-	/**
-	 * Determine whether or not a given commit is a "bug fix" or not. That is,
-	 * whether or not it contains the word "fix" in its short message.
-	 *
-	 * @param rc
-	 * @return
-	 */
-	private static boolean isBugFixCommit(RevCommit rc) {
-		String msg = rc.getShortMessage().toLowerCase();
-		return msg.contains("fix");
-	}
-
 	/**
 	 * Classify a given list of commits. This requires extracting the diffs for
-	 * each commit, parsing the affected Java source files (if any), locating
+	 * each commit, scanning the affected Java source files (if any), locating
 	 * the enclosing method (if any) and determining whether or not that method
-	 * includes an instance of the assert statement.
+	 * includes an instance of the assert statement. Since this only needs the
+	 * line ranges and a few features of each method, the lightweight
+	 * MethodScanner is used. Source files are only fully parsed when the
+	 * scanner cannot handle them.
 	 *
 	 * @param commits
 	 * @param git
@@ -215,14 +278,22 @@ public class AssertExperiment {
 		for (RevCommit rc : commits) {
 			// Extract the diffs
 			List<DiffEntry> diffs = extractDiffs(rc, git);
-			// Parse related source files into a cache
-			Map<String, CompilationUnit> cache = parseSourceFiles(diffs, git);
+			// Scan related source files for their methods
+			Map<String, List<MethodScanner.Method>> scans = scanSourceFiles(diffs, git);
+			// Parse any which could not be scanned into a cache
+			Map<String, CompilationUnit> cache = parseSourceFiles(diffs, scans, git);
 			// Extract all hunks
 			List<HunkHeader> hunks = extractHunks(diffs, git);
 			// Determine list of all methods affected by diff
+			List<MethodScanner.Method> scanned = scanAffectedMethods(hunks, scans);
 			List<MethodDeclaration> methods = determineAffectedMethods(hunks, cache);
 			// Classify affected methods
-			results.methodsAffectedByFixCommits += methods.size();
+			results.methodsAffectedByFixCommits += scanned.size() + methods.size();
+			for(MethodScanner.Method method : scanned) {
+				if(isOfInterest(method)) {
+					results.methodsOfInterestAffectedByFixCommits++;
+				}
+			}
 			for(MethodDeclaration method : methods) {
 				if(isOfInterest(method)) {
 					results.methodsOfInterestAffectedByFixCommits++;
@@ -247,8 +318,8 @@ public class AssertExperiment {
 		ArrayList<DiffEntry> diffs = new ArrayList<>();
 		Repository repository = git.getRepository();
 		RevTree rt = commit.getTree();
-		for (RevCommit parent : commit.getParents()) {
-			try (ObjectReader reader = repository.newObjectReader()) {
+		try (ObjectReader reader = repository.newObjectReader()) {
+			for (RevCommit parent : commit.getParents()) {
 				CanonicalTreeParser oldTreeIter = new CanonicalTreeParser();
 				oldTreeIter.reset(reader, parent.getTree().getId());
 				CanonicalTreeParser newTreeIter = new CanonicalTreeParser();
@@ -260,10 +331,9 @@ public class AssertExperiment {
 	}
 
 	/**
-	 * Parse all source files related to a given selection of diffs. The reason
-	 * for doing this is that multiple diffs may refer to the same compilation
-	 * unit. Therefore, we want to ensure each source file is parsed at most
-	 * once for efficiency.
+	 * Scan all source files related to a given selection of diffs. As for
+	 * parsing below, each source file is scanned at most once. Source files
+	 * which the scanner could not handle are mapped to null.
 	 *
 	 * @param diffs
 	 * @param git
@@ -271,12 +341,41 @@ public class AssertExperiment {
 	 * @throws IOException
 	 * @throws MissingObjectException
 	 */
-	private static Map<String, CompilationUnit> parseSourceFiles(List<DiffEntry> diffs, Git git)
+	private static Map<String, List<MethodScanner.Method>> scanSourceFiles(List<DiffEntry> diffs, Git git)
 			throws MissingObjectException, IOException {
+		BlobStore store = BlobStore.of(git.getRepository());
+		HashMap<String, List<MethodScanner.Method>> scans = new HashMap<>();
+		for (DiffEntry diff : diffs) {
+			String newPath = diff.getNewPath();
+			if (newPath.endsWith(".java") && !scans.containsKey(newPath)) {
+				BlobStore.Blob blob = store.load(diff.getNewId().toObjectId());
+				long start = System.nanoTime();
+				scans.put(newPath, MethodScanner.scan(blob.bytes, blob.length));
+				countParse(start);
+			}
+		}
+		return scans;
+	}
+
+	/**
+	 * Parse all source files related to a given selection of diffs which
+	 * could not be scanned. The reason for doing this is that multiple diffs
+	 * may refer to the same compilation unit. Therefore, we want to ensure each
+	 * source file is parsed at most once for efficiency.
+	 *
+	 * @param diffs
+	 * @param scans
+	 * @param git
+	 * @return
+	 * @throws IOException
+	 * @throws MissingObjectException
+	 */
+	private static Map<String, CompilationUnit> parseSourceFiles(List<DiffEntry> diffs,
+			Map<String, List<MethodScanner.Method>> scans, Git git) throws MissingObjectException, IOException {
 		HashMap<String, CompilationUnit> units = new HashMap<>();
 		for (DiffEntry diff : diffs) {
 			String newPath = diff.getNewPath();
-			if (newPath.endsWith(".java") && !units.containsKey(newPath)) {
+			if (newPath.endsWith(".java") && scans.get(newPath) == null && !units.containsKey(newPath)) {
 				// Source file not parsed before, so parse it
 				CompilationUnit unit = parseCompilationUnit(diff.getNewId().toObjectId(), git);
 				// Cache compilation unit
@@ -328,11 +427,86 @@ public class AssertExperiment {
 	 */
 	private static CompilationUnit parseCompilationUnit(ObjectId id, Git git)
 			throws MissingObjectException, IOException {
-		Repository repository = git.getRepository();
-		ObjectLoader loader = repository.open(id);
-		byte[] bytes = loader.getBytes();
-		ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-		return JavaParser.parse(bin);
+		BlobStore.Blob blob = BlobStore.of(git.getRepository()).load(id);
+		long start = System.nanoTime();
+		try {
+			return JavaParser.parse(blob.openStream());
+		} finally {
+			countParse(start);
+		}
+	}
+
+	/**
+	 * Parse a single Java source file into a CompilationUnit using a given
+	 * parser. Since parsers are not thread-safe, this is used by workers which
+	 * each have their own. As for the above, this fails with a
+	 * ParseProblemException if the file cannot be parsed.
+	 *
+	 * @param id
+	 * @param store
+	 * @param parser
+	 * @return
+	 * @throws MissingObjectException
+	 * @throws IOException
+	 */
+	static CompilationUnit parseCompilationUnit(ObjectId id, BlobStore store, JavaParser parser)
+			throws MissingObjectException, IOException {
+		return parseCompilationUnit(store.load(id), parser);
+	}
+
+	/**
+	 * Parse a single blob which has already been loaded into a CompilationUnit.
+	 *
+	 * @param blob
+	 * @param parser
+	 * @return
+	 */
+	static CompilationUnit parseCompilationUnit(BlobStore.Blob blob, JavaParser parser) {
+		long start = System.nanoTime();
+		ParseResult<CompilationUnit> result = parser.parse(ParseStart.COMPILATION_UNIT,
+				Providers.provider(blob.openStream()));
+		countParse(start);
+		if (!result.isSuccessful()) {
+			throw new ParseProblemException(result.getProblems());
+		}
+		return result.getResult().get();
+	}
+
+	/**
+	 * Record that a source file was parsed (or scanned), having started at a
+	 * given time.
+	 *
+	 * @param start
+	 *            As given by <code>System.nanoTime()</code>
+	 */
+	static void countParse(long start) {
+		parses.incrementAndGet();
+		parseNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	/**
+	 * For each change determine which scanned methods (if any) enclose it.
+	 * Changes to files which could not be scanned are ignored.
+	 *
+	 * @param hunks
+	 * @param scans
+	 * @return
+	 */
+	private static List<MethodScanner.Method> scanAffectedMethods(List<HunkHeader> hunks,
+			Map<String, List<MethodScanner.Method>> scans) {
+		ArrayList<MethodScanner.Method> methods = new ArrayList<>();
+		for (HunkHeader hunk : hunks) {
+			List<MethodScanner.Method> scanned = scans.get(hunk.getFileHeader().getNewPath());
+			if (scanned != null) {
+				for (MethodScanner.Method method : scanned) {
+					if (hasSourceOverlap(method, hunk)) {
+						methods.add(method);
+						break;
+					}
+				}
+			}
+		}
+		return methods;
 	}
 
 	/**
@@ -407,6 +581,31 @@ public class AssertExperiment {
 		return hunk.getNewStartLine() <= endLine && h_newEndLine >= startLine;
 	}
 
+	/**
+	 * Check whether or not a given scanned method and hunk overlap. This is
+	 * the same as for method declarations above.
+	 *
+	 * @param method
+	 * @param hunk
+	 * @return
+	 */
+	private static boolean hasSourceOverlap(MethodScanner.Method method, HunkHeader hunk) {
+		int h_newEndLine = hunk.getNewStartLine() + hunk.getNewLineCount();
+		return hunk.getNewStartLine() <= method.end && h_newEndLine >= method.begin;
+	}
+
+	/**
+	 * Determine whether or not a scanned method is a "method of interest".
+	 * This must agree with the definition for AST nodes below, which is
+	 * possible since it only requires features the scanner records.
+	 *
+	 * @param method
+	 * @return
+	 */
+	static boolean isOfInterest(MethodScanner.Method method) {
+		return method.has(MethodScanner.ASSERT) || method.has(MethodScanner.THROW_NEW_ILLEGAL_ARGUMENT_EXCEPTION);
+	}
+
 	/**
 	 * Determine whether or not this is a "method of interest". This is a
 	 * deliberately vague term, in order that it can be tweaked as we
@@ -415,7 +614,7 @@ public class AssertExperiment {
 	 * @param method
 	 * @return
 	 */
-	private static boolean isOfInterest(Node node) {
+	static boolean isOfInterest(Node node) {
 		if(node instanceof AssertStmt) {
 			// Bingo
 			return true;
@@ -439,25 +638,32 @@ public class AssertExperiment {
 		Expression child = stmt.getExpression();
 		if(child instanceof ObjectCreationExpr) {
 			ObjectCreationExpr e = (ObjectCreationExpr) child;
-			return e.getType().getName().equals(IllegalArgumentException.class.getSimpleName());
+			return e.getType().getNameAsString().equals(IllegalArgumentException.class.getSimpleName());
 		}
 		return false;
 	}
 
 	/**
-	 * Classify all methods in all files in a given git repository.
+	 * Classify all methods in all files in a given git repository. The blob ids
+	 * of all Java source files at HEAD are enumerated up front (which is
+	 * cheap), and then parsed and classified in parallel on the given
+	 * executor. Only the counts for each file are kept, so that the ASTs can
+	 * be discarded as soon as possible. The returned future completes once
+	 * every source file has been classified, meaning the caller is free to get
+	 * on with something else in the meantime.
 	 *
 	 * @param git
-	 * @param results
+	 * @param executor
 	 * @throws RevisionSyntaxException
 	 * @throws AmbiguousObjectException
 	 * @throws IncorrectObjectTypeException
 	 * @throws IOException
 	 */
-	private static List<MethodDeclaration> extractMethods(Git git) throws RevisionSyntaxException, AmbiguousObjectException, IncorrectObjectTypeException, IOException {
+	private static CompletableFuture<Counts> countMethods(Git git, ExecutorService executor)
+			throws RevisionSyntaxException, AmbiguousObjectException, IncorrectObjectTypeException, IOException {
 		Repository repository = git.getRepository();
 		//
-		ArrayList<MethodDeclaration> methods = new ArrayList<>();
+		ArrayList<ObjectId> blobs = new ArrayList<>();
 		// Find HEAD revision on default branch
 		ObjectId head = repository.resolve(Constants.HEAD);
 		// Read the tree at HEAD
@@ -470,12 +676,81 @@ public class AssertExperiment {
 				treeWalk.setRecursive(true);
 				treeWalk.setFilter(PathSuffixFilter.create(".java"));
 				while(treeWalk.next()) {
-					CompilationUnit cu = parseCompilationUnit(treeWalk.getObjectId(0),git);
-					extractMethods(cu,methods);
+					blobs.add(treeWalk.getObjectId(0));
 				}
 			}
 		}
-		return methods;
+		return parallelMap(blobs, repository, executor, threads,
+				(blob, parser) -> countMethods(parseCompilationUnit(blob, parser))).thenApply(counts -> {
+					int methods = 0, methodsOfInterest = 0;
+					for (Counts c : counts) {
+						methods += c.methods;
+						methodsOfInterest += c.methodsOfInterest;
+					}
+					return new Counts(methods, methodsOfInterest);
+				});
+	}
+
+	/**
+	 * Count the methods (and methods of interest) in a given compilation unit.
+	 *
+	 * @param cu
+	 * @return
+	 */
+	static Counts countMethods(CompilationUnit cu) {
+		ArrayList<MethodDeclaration> methods = new ArrayList<>();
+		extractMethods(cu, methods);
+		int methodsOfInterest = 0;
+		for (MethodDeclaration method : methods) {
+			if (isOfInterest(method)) {
+				methodsOfInterest++;
+			}
+		}
+		return new Counts(methods.size(), methodsOfInterest);
+	}
+
+	/**
+	 * Apply a given function to each of a given list of blobs in parallel,
+	 * returning the results in the same order. One worker is started per
+	 * thread, and these pull blobs off a shared index until none remain. Each
+	 * worker has its own JavaParser instance, which is passed to the function
+	 * along with each blob.
+	 *
+	 * @param blobs
+	 * @param repository
+	 * @param executor
+	 * @param threads
+	 *            The number of workers to start
+	 * @param function
+	 * @return
+	 */
+	static <R> CompletableFuture<List<R>> parallelMap(List<ObjectId> blobs, Repository repository,
+			ExecutorService executor, int threads, BiFunction<BlobStore.Blob, JavaParser, R> function) {
+		AtomicReferenceArray<R> results = new AtomicReferenceArray<>(blobs.size());
+		AtomicInteger next = new AtomicInteger();
+		CompletableFuture<?>[] workers = new CompletableFuture<?>[threads];
+		for (int i = 0; i != threads; ++i) {
+			workers[i] = CompletableFuture.runAsync(() -> {
+				JavaParser parser = new JavaParser();
+				BlobStore store = BlobStore.of(repository);
+				try {
+					int j;
+					while ((j = next.getAndIncrement()) < blobs.size()) {
+						results.set(j, function.apply(store.load(blobs.get(j)), parser));
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, executor);
+		}
+		// Combine the results from each worker
+		return CompletableFuture.allOf(workers).thenApply(v -> {
+			ArrayList<R> list = new ArrayList<>();
+			for (int i = 0; i != results.length(); ++i) {
+				list.add(results.get(i));
+			}
+			return list;
+		});
 	}
 
 	/**
@@ -484,7 +759,7 @@ public class AssertExperiment {
 	 * @param node
 	 * @param declaration
 	 */
-	private static void extractMethods(Node node, List<MethodDeclaration> methods) {
+	static void extractMethods(Node node, List<MethodDeclaration> methods) {
 		if (node instanceof MethodDeclaration) {
 			methods.add((MethodDeclaration) node);
 		} else {
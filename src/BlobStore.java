@@ -0,0 +1,335 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * Provides shared access to the blobs of a repository for every stage of the
+ * experiments. Previously, each stage loaded blobs in its own way (e.g. via
+ * <code>repository.open(id).getBytes()</code>, which copies every blob after
+ * inflating it) using JGit's default pack configuration. Instead, this
+ * configures JGit's pack window cache (including memory mapping of packs and
+ * the delta base cache) in one place, and provides a thread-safe way to load
+ * blobs. Each thread gets its own ObjectReader (since these are not
+ * thread-safe) and a reusable buffer for streaming large blobs, whilst recently
+ * loaded blobs are kept in a small cache shared between threads. A blob is
+ * large if it exceeds the stream file threshold, which is lowered from JGit's
+ * default (50MB) so that the buffer is actually used for big source files.
+ *
+ * The exception is computing diffs. JGit 4.4 provides no way to give a
+ * DiffFormatter a reader, so it loads both sides of each modified file through
+ * its own ObjectReader (e.g. in <code>AssertExperiment.extractHunks()</code>
+ * and <code>MethodLineage</code>). Such loads still benefit from the pack
+ * window cache configured here, but not from the blob cache, and are not
+ * included in the statistics.
+ *
+ * The settings below can be changed via <code>setOption()</code> (e.g. from
+ * arguments of the form <code>packedGitLimit=512m</code>), but only before
+ * <code>configure()</code> is called. Every tool calls that at the start of
+ * its <code>main</code>, since replacing JGit's window cache whilst other
+ * threads are reading packs through it is unsafe.
+ *
+ * Statistics are kept on the number of blobs requested, the proportion found
+ * in the cache, the number streamed, the number of bytes inflated and the time
+ * spent doing so. These indicate whether or not object access is the
+ * bottleneck.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BlobStore {
+
+	/**
+	 * The total number of bytes of pack file data which JGit may keep cached.
+	 */
+	private static long packedGitLimit = 256 * WindowCacheConfig.MB;
+
+	/**
+	 * The size of each window onto a pack file.
+	 */
+	private static int packedGitWindowSize = 64 * WindowCacheConfig.KB;
+
+	/**
+	 * Determines whether JGit memory maps pack files, rather than reading them
+	 * into heap allocated windows.
+	 */
+	private static boolean packedGitMMAP = true;
+
+	/**
+	 * The number of bytes of inflated delta bases which JGit may keep cached.
+	 * Source files are typically stored as long delta chains, so this is worth
+	 * making generous.
+	 */
+	private static int deltaBaseCacheLimit = 64 * WindowCacheConfig.MB;
+
+	/**
+	 * The number of bytes of recently loaded blobs to keep cached.
+	 */
+	private static long blobCacheLimit = 32 * WindowCacheConfig.MB;
+
+	/**
+	 * The size above which a blob is streamed into a reusable buffer, rather
+	 * than inflated into a freshly allocated array. Streamed blobs are not
+	 * cached, and streaming a deltified blob is slower, so this should only
+	 * catch unusually large files.
+	 */
+	private static int streamFileThreshold = 128 * WindowCacheConfig.KB;
+
+	private static boolean configured;
+
+	private static final Map<Repository, BlobStore> stores = new LinkedHashMap<>();
+
+	/**
+	 * A loaded blob. The bytes of a blob must not be modified. Furthermore, the
+	 * bytes of a large blob belong to the thread which loaded it, and are only
+	 * valid until it next loads a blob.
+	 */
+	public static class Blob {
+		public final byte[] bytes;
+		public final int length;
+
+		public Blob(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		public InputStream openStream() {
+			return new ByteArrayInputStream(bytes, 0, length);
+		}
+	}
+
+	/**
+	 * The per-thread state used for loading blobs.
+	 */
+	private static class Cursor {
+		public final ObjectReader reader;
+		public byte[] buffer = new byte[0];
+
+		public Cursor(ObjectReader reader) {
+			this.reader = reader;
+		}
+	}
+
+	private final Repository repository;
+
+	private final ThreadLocal<Cursor> cursors;
+
+	/**
+	 * All cursors created, so they can be closed.
+	 */
+	private final ArrayList<Cursor> allCursors = new ArrayList<>();
+
+	/**
+	 * Recently loaded blobs, in access order.
+	 */
+	private final LinkedHashMap<ObjectId, Blob> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long cacheSize;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong streamed = new AtomicLong();
+	private final AtomicLong bytesInflated = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+
+	private BlobStore(Repository repository) {
+		this.repository = repository;
+		this.cursors = ThreadLocal.withInitial(() -> {
+			Cursor cursor = new Cursor(repository.newObjectReader());
+			synchronized (allCursors) {
+				allCursors.add(cursor);
+			}
+			return cursor;
+		});
+	}
+
+	/**
+	 * Set one of the settings above by name, where sizes are given in bytes
+	 * with an optional suffix of <code>k</code>, <code>m</code> or
+	 * <code>g</code>.
+	 *
+	 * @param name
+	 * @param value
+	 * @return False if there is no such setting.
+	 * @throws IllegalStateException
+	 *             If the configuration has already been installed.
+	 */
+	public static synchronized boolean setOption(String name, String value) {
+		if (configured) {
+			throw new IllegalStateException("pack configuration already installed");
+		}
+		switch (name) {
+		case "packedGitLimit":
+			packedGitLimit = parseSize(value);
+			return true;
+		case "packedGitWindowSize":
+			packedGitWindowSize = (int) parseSize(value);
+			return true;
+		case "packedGitMMAP":
+			packedGitMMAP = Boolean.parseBoolean(value);
+			return true;
+		case "deltaBaseCacheLimit":
+			deltaBaseCacheLimit = (int) parseSize(value);
+			return true;
+		case "blobCacheLimit":
+			blobCacheLimit = parseSize(value);
+			return true;
+		case "streamFileThreshold":
+			streamFileThreshold = (int) parseSize(value);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static long parseSize(String value) {
+		String digits = value.toLowerCase();
+		long unit = 1;
+		if (digits.endsWith("k")) {
+			unit = WindowCacheConfig.KB;
+		} else if (digits.endsWith("m")) {
+			unit = WindowCacheConfig.MB;
+		} else if (digits.endsWith("g")) {
+			unit = 1024L * WindowCacheConfig.MB;
+		}
+		if (unit != 1) {
+			digits = digits.substring(0, digits.length() - 1);
+		}
+		return Long.parseLong(digits) * unit;
+	}
+
+	/**
+	 * Install the pack window cache configuration. Since this is global to
+	 * JGit, it must happen before any repository is opened (and is ignored
+	 * thereafter).
+	 */
+	public static synchronized void configure() {
+		if (!configured) {
+			WindowCacheConfig config = new WindowCacheConfig();
+			config.setPackedGitLimit(packedGitLimit);
+			config.setPackedGitWindowSize(packedGitWindowSize);
+			config.setPackedGitMMAP(packedGitMMAP);
+			config.setDeltaBaseCacheLimit(deltaBaseCacheLimit);
+			config.setStreamFileThreshold(streamFileThreshold);
+			config.install();
+			configured = true;
+		}
+	}
+
+	/**
+	 * Get the store for a given repository, creating it if necessary.
+	 *
+	 * @param repository
+	 * @return
+	 */
+	public static BlobStore of(Repository repository) {
+		synchronized (stores) {
+			configure();
+			BlobStore store = stores.get(repository);
+			if (store == null) {
+				store = new BlobStore(repository);
+				stores.put(repository, store);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Load a given blob. This is thread-safe.
+	 *
+	 * @param id
+	 * @return
+	 * @throws IOException
+	 */
+	public Blob load(AnyObjectId id) throws IOException {
+		requests.incrementAndGet();
+		synchronized (cache) {
+			Blob blob = cache.get(id);
+			if (blob != null) {
+				hits.incrementAndGet();
+				return blob;
+			}
+		}
+		long start = System.nanoTime();
+		Cursor cursor = cursors.get();
+		ObjectLoader loader = cursor.reader.open(id);
+		Blob blob;
+		if (loader.isLarge()) {
+			// Stream into this thread's buffer, rather than allocating
+			streamed.incrementAndGet();
+			int size = (int) loader.getSize();
+			if (cursor.buffer.length < size) {
+				cursor.buffer = new byte[size];
+			}
+			int length = 0;
+			try (ObjectStream in = loader.openStream()) {
+				int n;
+				while (length < size && (n = in.read(cursor.buffer, length, size - length)) > 0) {
+					length += n;
+				}
+			}
+			blob = new Blob(cursor.buffer, length);
+		} else {
+			// The cached bytes are not copied, unlike getBytes()
+			byte[] bytes = loader.getCachedBytes();
+			blob = new Blob(bytes, bytes.length);
+			cache(id.copy(), blob);
+		}
+		bytesInflated.addAndGet(blob.length);
+		nanos.addAndGet(System.nanoTime() - start);
+		return blob;
+	}
+
+	private void cache(ObjectId id, Blob blob) {
+		synchronized (cache) {
+			if (cache.put(id, blob) == null) {
+				cacheSize += blob.length;
+			}
+			Iterator<Blob> iterator = cache.values().iterator();
+			while (cacheSize > blobCacheLimit && iterator.hasNext()) {
+				cacheSize -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Close every reader opened by this store.
+	 */
+	public void close() {
+		synchronized (allCursors) {
+			for (Cursor cursor : allCursors) {
+				cursor.reader.close();
+			}
+			allCursors.clear();
+		}
+		synchronized (stores) {
+			stores.remove(repository);
+		}
+	}
+
+	/**
+	 * Describe the statistics gathered for this store.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		long r = requests.get();
+		long h = hits.get();
+		double ratio = AssertExperiment.ratio((int) h, (int) r);
+		return r + " blob(s) requested, " + h + " cache hit(s) (" + ratio + "%), " + streamed.get() + " streamed, "
+				+ (bytesInflated.get() / WindowCacheConfig.KB) + "KB inflated in " + (nanos.get() / 1000000) + "ms";
+	}
+}
@@ -0,0 +1,505 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Determines whether or not a given commit is a "bug fix", according to a set
+ * of rules loaded from a file. This replaces the original test of whether or
+ * not a commit's short message contains "fix", which allocated a lower case
+ * copy of every message and could not be changed without recompiling. Each
+ * line of the rules file has the form <code>kind pattern</code>, where kind is
+ * one of:
+ *
+ * <ul>
+ * <li><b>keyword</b>. Matches when the message contains the given keyword,
+ * ignoring (ASCII) case.</li>
+ * <li><b>regex</b>. Matches when the message contains a match for the given
+ * regular expression.</li>
+ * <li><b>issue</b>. Matches when the message contains an issue tracker id
+ * matching the given regular expression (e.g. <code>#[0-9]+</code> or
+ * <code>[A-Z]+-[0-9]+</code>) as a whole word.</li>
+ * <li><b>tests</b>. Matches when the commit touches a file whose path
+ * contains a match for the given regular expression (e.g.
+ * <code>(^|/)src/test/</code>).</li>
+ * </ul>
+ *
+ * Prefixing the kind with '!' makes the rule exclude commits. A commit is
+ * classified as a fix when at least one including rule matches and no
+ * excluding rule does. Lines starting with '#' are comments, and the line
+ * <code>scope full</code> makes the message rules consider the whole message,
+ * rather than just its first paragraph (i.e. the short message).
+ *
+ * Messages are matched directly against the raw bytes of the commit, without
+ * decoding them. All keywords are matched together in a single pass using an
+ * Aho-Corasick automaton, whilst regular expressions are matched using a
+ * reusable Matcher over a view of the raw bytes (which are treated as
+ * ISO-8859-1). Paths are matched in the same way. Thus, classifying a commit
+ * allocates nothing beyond what the regular expressions need. The number of
+ * commits matched by each rule is recorded, so that rules can be calibrated.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CommitClassifier {
+
+	private static String[] repositories = {
+			//"file:///Users/djp/projects/Jasm/",
+			"file:///Users/djp/projects/Whiley/"
+			};
+
+	/**
+	 * The file from which rules are loaded. If this does not exist, the
+	 * default rule set (i.e. the keyword "fix") is used instead.
+	 */
+	private static String rulesFile = "commit-rules.txt";
+
+	/**
+	 * The rule set used when no rules file exists. This preserves the original
+	 * classification of commits.
+	 */
+	private static final String[] DEFAULT_RULES = { "keyword fix" };
+
+	public static final int KEYWORD = 0;
+	public static final int REGEX = 1;
+	public static final int ISSUE = 2;
+	public static final int TESTS = 3;
+
+	private static final String[] KINDS = { "keyword", "regex", "issue", "tests" };
+
+	/**
+	 * A single rule, along with the number of commits it has matched.
+	 */
+	public static class Rule {
+		public final int kind;
+		public final String pattern;
+		public final boolean exclude;
+		/**
+		 * The reusable matcher for this rule, or null for keywords.
+		 */
+		private final Matcher matcher;
+		/**
+		 * Counts the number of commits matched by this rule.
+		 */
+		public int matches;
+		/**
+		 * The number of the last commit matched by this rule.
+		 */
+		private int stamp;
+
+		public Rule(int kind, String pattern, boolean exclude) {
+			this.kind = kind;
+			this.pattern = pattern;
+			this.exclude = exclude;
+			switch (kind) {
+			case KEYWORD:
+				this.matcher = null;
+				break;
+			case ISSUE:
+				this.matcher = Pattern.compile("(?<![\\w])(?:" + pattern + ")(?![\\w])").matcher("");
+				break;
+			default:
+				this.matcher = Pattern.compile(pattern).matcher("");
+			}
+		}
+
+		@Override
+		public String toString() {
+			return (exclude ? "!" : "") + KINDS[kind] + " " + pattern;
+		}
+	}
+
+	/**
+	 * A view of a range of bytes as a sequence of characters, without decoding
+	 * them. This allows a Matcher to be reset onto raw commit messages and
+	 * paths without allocating.
+	 */
+	private static class ByteSequence implements CharSequence {
+		private byte[] bytes;
+		private int start;
+		private int end;
+
+		public ByteSequence set(byte[] bytes, int start, int end) {
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[start + index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new ByteSequence().set(bytes, this.start + start, this.start + end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Maps each byte to the byte it is matched as by keywords. That is, ASCII
+	 * upper case letters are mapped to lower case, and line breaks to spaces
+	 * (as in a short message).
+	 */
+	private static final byte[] FOLD = new byte[256];
+
+	static {
+		for (int i = 0; i != 256; ++i) {
+			FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i == '\n' ? ' ' : i);
+		}
+	}
+
+	private final Repository repository;
+
+	private final Rule[] rules;
+
+	/**
+	 * Determines whether the message rules consider the whole message, rather
+	 * than just its first paragraph.
+	 */
+	private final boolean fullMessage;
+
+	/**
+	 * The transition table of the keyword automaton, indexed by
+	 * <code>state * 256 + byte</code>. State zero is the initial state.
+	 */
+	private final int[] transitions;
+
+	/**
+	 * The keyword rules matched upon reaching each state of the automaton, or
+	 * null if there are none.
+	 */
+	private final Rule[][] outputs;
+
+	private final boolean hasMessageRegexes;
+
+	private final boolean hasPathRules;
+
+	private final ByteSequence sequence = new ByteSequence();
+
+	private ObjectReader reader;
+
+	private TreeWalk treeWalk;
+
+	/**
+	 * Counts the number of commits classified.
+	 */
+	private int commits;
+
+	/**
+	 * Counts the number of commits classified as fixes.
+	 */
+	private int fixes;
+
+	public CommitClassifier(Repository repository, List<Rule> rules, boolean fullMessage) {
+		this.repository = repository;
+		this.rules = rules.toArray(new Rule[rules.size()]);
+		this.fullMessage = fullMessage;
+		boolean hasMessageRegexes = false, hasPathRules = false;
+		for (Rule rule : rules) {
+			hasMessageRegexes |= rule.kind == REGEX || rule.kind == ISSUE;
+			hasPathRules |= rule.kind == TESTS;
+		}
+		this.hasMessageRegexes = hasMessageRegexes;
+		this.hasPathRules = hasPathRules;
+		// Build the keyword automaton
+		ArrayList<int[]> trie = new ArrayList<>();
+		ArrayList<List<Rule>> accepts = new ArrayList<>();
+		trie.add(new int[256]);
+		accepts.add(new ArrayList<>());
+		for (Rule rule : rules) {
+			if (rule.kind == KEYWORD) {
+				int state = 0;
+				for (byte b : rule.pattern.getBytes(StandardCharsets.UTF_8)) {
+					int c = FOLD[b & 0xFF] & 0xFF;
+					if (trie.get(state)[c] == 0) {
+						trie.get(state)[c] = trie.size();
+						trie.add(new int[256]);
+						accepts.add(new ArrayList<>());
+					}
+					state = trie.get(state)[c];
+				}
+				accepts.get(state).add(rule);
+			}
+		}
+		this.transitions = new int[trie.size() * 256];
+		this.outputs = new Rule[trie.size()][];
+		// Convert it into a deterministic automaton by following failure links
+		// breadth first, such that each state's failure is computed before its
+		// children need it.
+		int[] failure = new int[trie.size()];
+		int[] queue = new int[trie.size()];
+		int head = 0, tail = 0;
+		for (int c = 0; c != 256; ++c) {
+			int child = trie.get(0)[c];
+			transitions[c] = child;
+			if (child != 0) {
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			accepts.get(state).addAll(accepts.get(failure[state]));
+			for (int c = 0; c != 256; ++c) {
+				int child = trie.get(state)[c];
+				if (child != 0) {
+					failure[child] = transitions[failure[state] * 256 + c];
+					transitions[state * 256 + c] = child;
+					queue[tail++] = child;
+				} else {
+					transitions[state * 256 + c] = transitions[failure[state] * 256 + c];
+				}
+			}
+		}
+		for (int i = 0; i != outputs.length; ++i) {
+			List<Rule> accept = accepts.get(i);
+			outputs[i] = accept.isEmpty() ? null : accept.toArray(new Rule[accept.size()]);
+		}
+	}
+
+	public static void main(String[] args) {
+		BlobStore.configure();
+		try {
+			for (String repo : repositories) {
+				long start = System.currentTimeMillis();
+				System.out.println("Cloning repository " + repo + " ... ");
+				Git git = AssertExperiment.cloneGitRepository(repo);
+				System.out.println("Classifying commits from " + repo + " ... ");
+				CommitClassifier classifier = load(git.getRepository());
+				for (RevCommit rc : git.log().call()) {
+					classifier.classify(rc);
+				}
+				long end = System.currentTimeMillis();
+				System.out.println("Finished " + repo + " (" + (end - start) + "ms)");
+				classifier.report();
+				classifier.close();
+			}
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Create a classifier for a given repository using the rules file, or the
+	 * default rule set if that does not exist.
+	 *
+	 * @param repository
+	 * @return
+	 * @throws IOException
+	 */
+	public static CommitClassifier load(Repository repository) throws IOException {
+		File file = new File(rulesFile);
+		if (file.exists()) {
+			return parse(repository, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+		} else {
+			List<String> lines = new ArrayList<>();
+			for (String line : DEFAULT_RULES) {
+				lines.add(line);
+			}
+			return parse(repository, lines);
+		}
+	}
+
+	/**
+	 * Create a classifier for a given repository from the lines of a rules
+	 * file.
+	 *
+	 * @param repository
+	 * @param lines
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             If a line is not a valid rule.
+	 */
+	public static CommitClassifier parse(Repository repository, List<String> lines) {
+		ArrayList<Rule> rules = new ArrayList<>();
+		boolean fullMessage = false;
+		for (int i = 0; i != lines.size(); ++i) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int split = line.indexOf(' ');
+			String kind = split < 0 ? line : line.substring(0, split);
+			String pattern = split < 0 ? "" : line.substring(split + 1).trim();
+			boolean exclude = kind.startsWith("!");
+			kind = exclude ? kind.substring(1) : kind;
+			int k = indexOf(kind);
+			if (kind.equals("scope") && !exclude && (pattern.equals("full") || pattern.equals("short"))) {
+				fullMessage = pattern.equals("full");
+			} else if (k < 0 || pattern.isEmpty()) {
+				throw new IllegalArgumentException("invalid rule on line " + (i + 1) + ": " + line);
+			} else {
+				rules.add(new Rule(k, pattern, exclude));
+			}
+		}
+		return new CommitClassifier(repository, rules, fullMessage);
+	}
+
+	private static int indexOf(String kind) {
+		for (int i = 0; i != KINDS.length; ++i) {
+			if (KINDS[i].equals(kind)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Determine whether or not a given commit is a "bug fix", and update the
+	 * match counts of every rule which matches it. The commit's body must
+	 * have been retained by the walk which produced it. A classifier is not
+	 * thread-safe.
+	 *
+	 * @param rc
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean classify(RevCommit rc) throws IOException {
+		int stamp = ++commits;
+		byte[] raw = rc.getRawBuffer();
+		int start = RawParseUtils.commitMessage(raw, 0);
+		if (start >= 0) {
+			int end = fullMessage ? raw.length : RawParseUtils.endOfParagraph(raw, start);
+			// Match all keywords in a single pass
+			int state = 0;
+			for (int i = start; i < end; ++i) {
+				state = transitions[(state << 8) | (FOLD[raw[i] & 0xFF] & 0xFF)];
+				Rule[] output = outputs[state];
+				if (output != null) {
+					for (Rule rule : output) {
+						rule.stamp = stamp;
+					}
+				}
+			}
+			if (hasMessageRegexes) {
+				sequence.set(raw, start, end);
+				for (Rule rule : rules) {
+					if ((rule.kind == REGEX || rule.kind == ISSUE) && rule.matcher.reset(sequence).find()) {
+						rule.stamp = stamp;
+					}
+				}
+			}
+		}
+		if (hasPathRules) {
+			matchPaths(rc, stamp);
+		}
+		// Determine the outcome
+		boolean included = false, excluded = false;
+		for (Rule rule : rules) {
+			if (rule.stamp == stamp) {
+				rule.matches++;
+				included |= !rule.exclude;
+				excluded |= rule.exclude;
+			}
+		}
+		boolean fix = included && !excluded;
+		fixes += fix ? 1 : 0;
+		return fix;
+	}
+
+	/**
+	 * Match the paths of all files touched by a given commit against the path
+	 * rules. Merge commits are compared against their first parent. The trees
+	 * are taken from the walk which produced the commit, rather than parsing
+	 * the commits again.
+	 *
+	 * @param rc
+	 * @param stamp
+	 * @throws IOException
+	 */
+	private void matchPaths(RevCommit rc, int stamp) throws IOException {
+		if (treeWalk == null) {
+			reader = repository.newObjectReader();
+			treeWalk = new TreeWalk(reader);
+			treeWalk.setRecursive(true);
+		}
+		treeWalk.reset();
+		if (rc.getParentCount() == 0) {
+			treeWalk.addTree(new EmptyTreeIterator());
+		} else {
+			treeWalk.addTree(getTree(rc.getParent(0)));
+		}
+		treeWalk.addTree(getTree(rc));
+		treeWalk.setFilter(TreeFilter.ANY_DIFF);
+		while (treeWalk.next()) {
+			AbstractTreeIterator tree = treeWalk.getTree(1, AbstractTreeIterator.class);
+			if (tree == null) {
+				tree = treeWalk.getTree(0, AbstractTreeIterator.class);
+			}
+			sequence.set(tree.getEntryPathBuffer(), 0, tree.getEntryPathLength());
+			for (Rule rule : rules) {
+				if (rule.kind == TESTS && rule.stamp != stamp && rule.matcher.reset(sequence).find()) {
+					rule.stamp = stamp;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Print out the number of commits matched by each rule.
+	 */
+	public void report() {
+		double ratio = AssertExperiment.ratio(fixes, commits);
+		System.out.println("Classified " + commits + " commit(s), " + fixes + " as fix(es) (" + ratio + "%)");
+		for (Rule rule : rules) {
+			ratio = AssertExperiment.ratio(rule.matches, commits);
+			System.out.println("  " + rule + ": " + rule.matches + " commit(s) (" + ratio + "%)");
+		}
+	}
+
+	/**
+	 * Get the tree of a given commit. A parent may not have been parsed by the
+	 * walk which produced its child, in which case the tree is read from the
+	 * start of the raw commit (which is always <code>tree &lt;id&gt;</code>)
+	 * without retaining anything.
+	 *
+	 * @param rc
+	 * @return
+	 * @throws IOException
+	 */
+	private ObjectId getTree(RevCommit rc) throws IOException {
+		if (rc.getTree() != null) {
+			return rc.getTree();
+		}
+		byte[] raw = reader.open(rc, Constants.OBJ_COMMIT).getCachedBytes();
+		return ObjectId.fromString(raw, 5);
+	}
+
+	/**
+	 * Release the resources used for matching paths.
+	 */
+	public void close() {
+		if (treeWalk != null) {
+			treeWalk.close();
+			reader.close();
+		}
+	}
+}
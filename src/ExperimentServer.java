@@ -0,0 +1,545 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.FileUtils;
+
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long-running server which answers experiment queries against warm state.
+ * Starting a fresh JVM, cloning a repository and parsing every source file
+ * dominates the time taken to try out a tweak to a predicate (e.g.
+ * <code>isOfInterest</code>). Instead, this keeps cloned repositories open,
+ * JGit's pack windows cached (as configured by <code>BlobStore</code>) and
+ * parsed compilation units in memory between requests. Queries are made over
+ * HTTP on the loopback interface, for example:
+ *
+ * <pre>
+ * curl 'http://localhost:8080/experiment?repository=file:///path/to/repo/&amp;commit=HEAD~100&amp;predicates=assert,MyPredicate'
+ * </pre>
+ *
+ * The <code>commit</code> parameter is any revision string understood by
+ * JGit (it defaults to HEAD), and <code>predicates</code> is a comma-separated
+ * list of predicates (it defaults to the built-in ones registered below). Any
+ * other name is taken to be a class implementing
+ * <code>Predicate&lt;Node&gt;</code>, which is loaded from the
+ * <code>classes</code> directory using a fresh class loader for each request.
+ * Thus, a predicate can be changed by recompiling it into that directory,
+ * without restarting the server or losing its caches. Classes which are not
+ * found in that directory (e.g. those on the server's own classpath) are
+ * rejected.
+ *
+ * A repository which is already open is fetched again before each request,
+ * and its local branches are moved to match those of the origin, so that
+ * <code>HEAD</code> and branch names refer to their latest commits. Since
+ * the working tree is never used, it is left as it was when cloned. Fetching
+ * can be skipped by giving <code>fetch=false</code>, in which case revisions
+ * resolve as of the last fetch (as noted in the response). The current state of the caches can be seen via
+ * <code>/stats</code>, and they can be emptied via <code>/evict</code>.
+ *
+ * The settings below can be given as arguments of the form
+ * <code>name=value</code> (e.g. <code>port=9090 maxUnits=100000</code>), as
+ * can those of <code>BlobStore</code> which configure the pack cache (e.g.
+ * <code>packedGitLimit=1g packedGitMMAP=false</code>).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ExperimentServer {
+
+	/**
+	 * The port on which to listen. Only connections via the loopback interface
+	 * are accepted.
+	 */
+	private static int port = 8080;
+
+	/**
+	 * The maximum number of repositories kept open. When exceeded, the least
+	 * recently used repository is closed.
+	 */
+	private static int maxRepositories = 4;
+
+	/**
+	 * The maximum number of parsed compilation units kept in memory. When
+	 * exceeded, the least recently used unit is evicted.
+	 */
+	private static int maxUnits = 50000;
+
+	/**
+	 * The fraction of the maximum heap above which half of the parsed
+	 * compilation units are evicted after a request. This provides a backstop
+	 * for when <code>maxUnits</code> is too generous for the available memory.
+	 */
+	private static double maxHeapFraction = 0.8;
+
+	/**
+	 * The directory from which predicate classes are loaded.
+	 */
+	private static String classes = "predicates";
+
+	/**
+	 * The number of worker threads used for parsing source files.
+	 */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The built-in predicates, identified by name.
+	 */
+	private static final Map<String, Predicate<Node>> predicates = new LinkedHashMap<>();
+
+	static {
+		predicates.put("assert", AssertExperiment::isOfInterest);
+		predicates.put("loop", LoopExtractor::isOfInterest);
+	}
+
+	/**
+	 * Cloned repositories, identified by URI and kept in access order.
+	 */
+	private static final LinkedHashMap<String, Git> repositories = new LinkedHashMap<String, Git>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Git> eldest) {
+			if (size() > maxRepositories) {
+				Repository repository = eldest.getValue().getRepository();
+				BlobStore.of(repository).close();
+				eldest.getValue().close();
+				// Delete the temporary clone
+				try {
+					FileUtils.delete(repository.getWorkTree(), FileUtils.RECURSIVE | FileUtils.RETRY);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * Parsed compilation units, identified by blob and kept in access order.
+	 * Blobs which could not be parsed are mapped to null, so that we don't
+	 * keep trying.
+	 */
+	private static final LinkedHashMap<ObjectId, CompilationUnit> units = new LinkedHashMap<ObjectId, CompilationUnit>(
+			16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, CompilationUnit> eldest) {
+			return size() > maxUnits;
+		}
+	};
+
+	/**
+	 * Counts the number of compilation units requested from the cache.
+	 */
+	private static long unitRequests;
+
+	/**
+	 * Counts the number of compilation units which were found in the cache.
+	 */
+	private static long unitHits;
+
+	private static ExecutorService executor;
+
+	public static void main(String[] args) {
+		try {
+			for (String arg : args) {
+				int index = arg.indexOf('=');
+				String name = index < 0 ? arg : arg.substring(0, index);
+				String value = index < 0 ? "" : arg.substring(index + 1);
+				switch (name) {
+				case "port":
+					port = Integer.parseInt(value);
+					break;
+				case "maxRepositories":
+					maxRepositories = Integer.parseInt(value);
+					break;
+				case "maxUnits":
+					maxUnits = Integer.parseInt(value);
+					break;
+				case "maxHeapFraction":
+					maxHeapFraction = Double.parseDouble(value);
+					break;
+				case "classes":
+					classes = value;
+					break;
+				case "threads":
+					threads = Integer.parseInt(value);
+					break;
+				default:
+					if (!BlobStore.setOption(name, value)) {
+						System.out.println("Unknown argument " + arg + ", expected one of port, maxRepositories, maxUnits,"
+								+ " maxHeapFraction, classes, threads or a BlobStore setting (e.g. port=9090)");
+						return;
+					}
+				}
+			}
+			BlobStore.configure();
+			executor = Executors.newFixedThreadPool(threads);
+			HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/experiment", ExperimentServer::handleExperiment);
+			server.createContext("/stats", ExperimentServer::handleStats);
+			server.createContext("/evict", ExperimentServer::handleEvict);
+			// Requests are handled one at a time, since the work for each is
+			// already spread across the worker threads.
+			server.setExecutor(Executors.newSingleThreadExecutor());
+			server.start();
+			System.out.println("Listening on " + server.getAddress() + " ... ");
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	private static void handleExperiment(HttpExchange exchange) throws IOException {
+		try {
+			long start = System.currentTimeMillis();
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String repo = query.get("repository");
+			if (repo == null) {
+				respond(exchange, 400, "missing repository parameter\n");
+				return;
+			}
+			String selector = query.getOrDefault("commit", "HEAD");
+			ArrayList<String> names = new ArrayList<>(predicates.keySet());
+			if (query.containsKey("predicates")) {
+				names = new ArrayList<>(Arrays.asList(query.get("predicates").split(",")));
+			}
+			// A fresh class loader is used for each request, so that the
+			// latest version of each predicate class is picked up.
+			try (URLClassLoader loader = new URLClassLoader(new URL[] { new File(classes).toURI().toURL() },
+					ExperimentServer.class.getClassLoader())) {
+				LinkedHashMap<String, Predicate<Node>> selected = new LinkedHashMap<>();
+				for (String name : names) {
+					Predicate<Node> predicate = predicates.get(name);
+					if (predicate == null) {
+						predicate = loadPredicate(name, loader);
+					}
+					if (predicate == null) {
+						respond(exchange, 400, "unknown predicate " + name + "\n");
+						return;
+					}
+					selected.put(name, predicate);
+				}
+				boolean fetch = !query.getOrDefault("fetch", "true").equals("false");
+				StringBuilder response = new StringBuilder();
+				Git git = openRepository(repo, fetch, response);
+				ObjectId id = git.getRepository().resolve(selector);
+				if (id == null) {
+					respond(exchange, 400, "unknown commit " + selector + "\n");
+					return;
+				}
+				runExperiment(git, id, selected, response);
+				long end = System.currentTimeMillis();
+				response.append("Finished (" + (end - start) + "ms)\n");
+				respond(exchange, 200, response.toString());
+			}
+			checkHeap();
+		} catch (Exception e) {
+			e.printStackTrace();
+			respond(exchange, 500, e.toString() + "\n");
+		}
+	}
+
+	/**
+	 * Load a predicate class from the classes directory, returning null if
+	 * there is no such class or it is not a predicate over nodes. The class is
+	 * not initialised until it is known to come from the classes directory,
+	 * since otherwise any class on the server's classpath could be
+	 * instantiated.
+	 *
+	 * @param name
+	 * @param loader
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private static Predicate<Node> loadPredicate(String name, ClassLoader loader) {
+		try {
+			Class<?> cls = Class.forName(name, false, loader);
+			if (cls.getClassLoader() != loader || !Predicate.class.isAssignableFrom(cls)) {
+				return null;
+			}
+			return (Predicate<Node>) cls.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	private static void handleStats(HttpExchange exchange) throws IOException {
+		StringBuilder response = new StringBuilder();
+		synchronized (units) {
+			response.append("Repositories: " + repositories.keySet() + "\n");
+			for (Git git : repositories.values()) {
+				response.append("Object access: " + BlobStore.of(git.getRepository()).getStatistics() + "\n");
+			}
+			double ratio = AssertExperiment.ratio((int) unitHits, (int) unitRequests);
+			response.append("Units: " + units.size() + " cached, " + unitHits + " hit(s) from " + unitRequests
+					+ " request(s) (" + ratio + "%)\n");
+		}
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		response.append("Heap: " + (used / WindowCacheConfig.MB) + "MB used (" + (getLiveHeap() / WindowCacheConfig.MB)
+				+ "MB after last GC) of " + (runtime.maxMemory() / WindowCacheConfig.MB) + "MB\n");
+		respond(exchange, 200, response.toString());
+	}
+
+	private static void handleEvict(HttpExchange exchange) throws IOException {
+		synchronized (units) {
+			units.clear();
+		}
+		respond(exchange, 200, "Evicted all units\n");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		HashMap<String, String> parameters = new HashMap<>();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int index = parameter.indexOf('=');
+				if (index >= 0) {
+					String key = URLDecoder.decode(parameter.substring(0, index), "UTF-8");
+					String value = URLDecoder.decode(parameter.substring(index + 1), "UTF-8");
+					parameters.put(key, value);
+				}
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Get the open repository for a given URI, cloning it if necessary. A
+	 * repository which was already open is optionally fetched again.
+	 *
+	 * @param URI
+	 * @param fetch
+	 *            Determines whether an open repository is fetched
+	 * @param response
+	 *            Where any note about fetching is written
+	 * @return
+	 * @throws IOException
+	 * @throws GitAPIException
+	 */
+	private static Git openRepository(String URI, boolean fetch, StringBuilder response)
+			throws IOException, GitAPIException {
+		Git git = repositories.get(URI);
+		if (git == null) {
+			System.out.println("Cloning repository " + URI + " ... ");
+			git = AssertExperiment.cloneGitRepository(URI);
+			repositories.put(URI, git);
+		} else if (fetch) {
+			fetchRepository(git);
+		} else {
+			response.append("Not fetched, so revisions are as of the last fetch\n");
+		}
+		return git;
+	}
+
+	/**
+	 * Fetch a given repository from its origin, and then move each local
+	 * branch to the commit of the corresponding remote branch. Only the refs
+	 * are moved, since the working tree and index are never used.
+	 *
+	 * @param git
+	 * @throws IOException
+	 * @throws GitAPIException
+	 */
+	private static void fetchRepository(Git git) throws IOException, GitAPIException {
+		git.fetch().setRemoveDeletedRefs(true).call();
+		Repository repository = git.getRepository();
+		String remotes = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/";
+		for (Map.Entry<String, Ref> entry : repository.getRefDatabase().getRefs(Constants.R_HEADS).entrySet()) {
+			Ref remote = repository.exactRef(remotes + entry.getKey());
+			if (remote != null && !remote.getObjectId().equals(entry.getValue().getObjectId())) {
+				RefUpdate update = repository.updateRef(entry.getValue().getName());
+				update.setNewObjectId(remote.getObjectId());
+				RefUpdate.Result result = update.forceUpdate();
+				if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.FAST_FORWARD) {
+					throw new IOException("failed to update " + entry.getValue().getName() + " (" + result + ")");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluate the given predicates over all methods in all files at a given
+	 * commit. Compilation units are taken from the cache where possible, and
+	 * those missing are parsed in parallel.
+	 *
+	 * @param git
+	 * @param commit
+	 * @param predicates
+	 *            The predicates to evaluate, identified by name
+	 * @param response
+	 *            Where the results are written
+	 * @throws IOException
+	 */
+	private static void runExperiment(Git git, ObjectId commit, Map<String, Predicate<Node>> predicates,
+			StringBuilder response)
+			throws IOException {
+		Repository repository = git.getRepository();
+		// Enumerate the source files at the given commit
+		ArrayList<ObjectId> blobs = new ArrayList<>();
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			RevCommit rc = revWalk.parseCommit(commit);
+			try (TreeWalk treeWalk = new TreeWalk(repository)) {
+				treeWalk.addTree(rc.getTree());
+				treeWalk.setRecursive(true);
+				treeWalk.setFilter(PathSuffixFilter.create(".java"));
+				while (treeWalk.next()) {
+					blobs.add(treeWalk.getObjectId(0));
+				}
+			}
+			response.append("Commit " + rc.getName() + " " + rc.getShortMessage() + "\n");
+		}
+		// Determine which are not already cached
+		ArrayList<ObjectId> misses = new ArrayList<>();
+		HashMap<ObjectId, CompilationUnit> cus = new HashMap<>();
+		synchronized (units) {
+			for (ObjectId blob : blobs) {
+				unitRequests++;
+				if (units.containsKey(blob)) {
+					unitHits++;
+					cus.put(blob, units.get(blob));
+				} else {
+					misses.add(blob);
+				}
+			}
+		}
+		// Parse the missing ones
+		List<CompilationUnit> parsed = parseCompilationUnits(misses, repository).join();
+		synchronized (units) {
+			for (int i = 0; i != misses.size(); ++i) {
+				units.put(misses.get(i), parsed.get(i));
+				cus.put(misses.get(i), parsed.get(i));
+			}
+		}
+		// Evaluate predicates
+		int unparseable = 0;
+		ArrayList<MethodDeclaration> methods = new ArrayList<>();
+		for (ObjectId blob : blobs) {
+			CompilationUnit cu = cus.get(blob);
+			if (cu == null) {
+				unparseable++;
+			} else {
+				AssertExperiment.extractMethods(cu, methods);
+			}
+		}
+		response.append("Found " + blobs.size() + " file(s), " + misses.size() + " parsed, " + unparseable
+				+ " unparseable\n");
+		response.append("Found " + methods.size() + " method(s)\n");
+		for (Map.Entry<String, Predicate<Node>> entry : predicates.entrySet()) {
+			String name = entry.getKey();
+			Predicate<Node> predicate = entry.getValue();
+			int count = 0;
+			for (MethodDeclaration method : methods) {
+				if (predicate.test(method)) {
+					count++;
+				}
+			}
+			double ratio = AssertExperiment.ratio(count, methods.size());
+			response.append("Found " + count + " method(s) of interest for " + name + " (" + ratio + "%)\n");
+		}
+	}
+
+	/**
+	 * Parse a given list of blobs in parallel, returning the compilation units
+	 * in the same order. Blobs which cannot be parsed give null.
+	 *
+	 * @param blobs
+	 * @param repository
+	 * @return
+	 */
+	private static CompletableFuture<List<CompilationUnit>> parseCompilationUnits(List<ObjectId> blobs,
+			Repository repository) {
+		return AssertExperiment.parallelMap(blobs, repository, executor, threads, (blob, parser) -> {
+			try {
+				return AssertExperiment.parseCompilationUnit(blob, parser);
+			} catch (ParseProblemException e) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Check whether the heap is close to its limit and, if so, evict the least
+	 * recently used half of the compilation units. This is based on the heap
+	 * in use after the last garbage collection, since the heap currently in
+	 * use includes any garbage left behind by the request.
+	 */
+	private static void checkHeap() {
+		if (getLiveHeap() > maxHeapFraction * Runtime.getRuntime().maxMemory()) {
+			synchronized (units) {
+				int count = units.size() / 2;
+				Iterator<ObjectId> iterator = units.keySet().iterator();
+				while (count-- > 0) {
+					iterator.next();
+					iterator.remove();
+				}
+				System.out.println("Heap limit reached, " + units.size() + " unit(s) remain cached");
+			}
+		}
+	}
+
+	/**
+	 * Determine the amount of heap in use immediately after the last garbage
+	 * collection of each heap memory pool.
+	 *
+	 * @return
+	 */
+	private static long getLiveHeap() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (pool.getType() == MemoryType.HEAP && usage != null) {
+				used += usage.getUsed();
+			}
+		}
+		return used;
+	}
+}
@@ -1,4 +1,3 @@
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -20,7 +19,6 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevisionSyntaxException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.patch.FileHeader;
@@ -52,7 +50,7 @@ public class LoopExtractor {
 			//"file:///Users/djp/projects/StaticVariableTest/"
 			};
 
-	private static class Results {
+	static class Results {
 		/**
 		 * Counts the total number of methods in latest revision. This is
 		 * necessary to get a feeling for the proportion of methods of interest
@@ -70,6 +68,7 @@ public class LoopExtractor {
 	}
 
 	public static void main(String[] args) {
+		BlobStore.configure();
 		try {
 			PrettyPrinter printer = new PrettyPrinter();
 			Results results = new Results();
@@ -77,18 +76,13 @@ public class LoopExtractor {
 				long start = System.currentTimeMillis();
 				System.out.println("Cloning repository " + repo + " ... ");
 				Git git = cloneGitRepository(repo);
-				System.out.println("Classifing all methods from " + repo + " ... ");
-				List<MethodDeclaration> methods = extractMethods(git);
-				for(MethodDeclaration method : methods) {
-					if(isOfInterest(method)) {
-						results.methodsOfInterest++;
-						System.out.println(printer.print(method));
-					}
-					results.methods++;
+				for (MethodDeclaration method : runExperiment(repo, git, results)) {
+					System.out.println(printer.print(method));
 				}
 
 				long end = System.currentTimeMillis();
 				System.out.println("Finished " + repo + " (" + (end - start) + "ms)");
+				System.out.println("Object access: " + BlobStore.of(git.getRepository()).getStatistics());
 			}
 			System.out.println("Found " + results.methods + " method(s)");
 			double ratio = ratio(results.methodsOfInterest,results.methods);
@@ -99,6 +93,30 @@ public class LoopExtractor {
 		}
 	}
 
+	/**
+	 * Run the experiment on a single repository, accumulating into a given set
+	 * of results.
+	 *
+	 * @param repo
+	 *            The name of the repository, used for reporting progress.
+	 * @param git
+	 * @param results
+	 * @return The methods of interest found.
+	 * @throws IOException
+	 */
+	static List<MethodDeclaration> runExperiment(String repo, Git git, Results results) throws IOException {
+		System.out.println("Classifing all methods from " + repo + " ... ");
+		ArrayList<MethodDeclaration> methodsOfInterest = new ArrayList<>();
+		for(MethodDeclaration method : extractMethods(git)) {
+			if(isOfInterest(method)) {
+				results.methodsOfInterest++;
+				methodsOfInterest.add(method);
+			}
+			results.methods++;
+		}
+		return methodsOfInterest;
+	}
+
 	private static double ratio(int numerator, int denominator) {
 		double ratio = 10000 * ((double)numerator) / (double) denominator;
 		return Math.round(ratio) / 100d;
@@ -198,11 +216,13 @@ public class LoopExtractor {
 	 */
 	private static CompilationUnit parseCompilationUnit(ObjectId id, Git git)
 			throws MissingObjectException, IOException {
-		Repository repository = git.getRepository();
-		ObjectLoader loader = repository.open(id);
-		byte[] bytes = loader.getBytes();
-		ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-		return JavaParser.parse(bin);
+		BlobStore.Blob blob = BlobStore.of(git.getRepository()).load(id);
+		long start = System.nanoTime();
+		try {
+			return JavaParser.parse(blob.openStream());
+		} finally {
+			AssertExperiment.countParse(start);
+		}
 	}
 
 	/**
@@ -0,0 +1,727 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.EnumConstantDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.stmt.BlockStmt;
+
+/**
+ * Tracks the lineage of individual methods through the history of a
+ * repository. Whilst <code>AssertExperiment</code> counts how many methods
+ * each fix commit touches, it cannot tell that the same method was fixed
+ * several times. Here, each method is given an identity which persists across
+ * commits. This is keyed by its qualified class name and signature, and
+ * follows the method when it (or its file) is renamed or moved.
+ *
+ * The history is walked once along the first-parent chain, oldest first. For
+ * each commit, only the files in its diff are parsed (and the previous version
+ * of a file is usually still cached from the commit which produced it). Only
+ * the methods in those files are updated, giving per-method fix counts and
+ * the history of whether or not each method was "of interest" in a single
+ * forward pass. A method is touched by a commit if one of the commit's edits
+ * falls within it.
+ *
+ * The identity of each method is only updated along the first-parent chain,
+ * so that changes made on different branches are never replayed against each
+ * other. Instead, a merge updates identities using its difference from its
+ * first parent. The commits on the branches it merges are still classified
+ * and counted individually, but the methods they touch are only resolved
+ * after the merge, via either their current or a former key. Touches which
+ * cannot be resolved (e.g. of a method added and then removed on a branch)
+ * are counted and reported.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class MethodLineage {
+
+	private static String[] repositories = {
+			//"file:///Users/djp/projects/Jasm/",
+			"file:///Users/djp/projects/Whiley/"
+			};
+
+	/**
+	 * The maximum number of per-blob method summaries to keep cached.
+	 */
+	private static int maxSummaries = 10000;
+
+	/**
+	 * The number of most frequently fixed methods to report.
+	 */
+	private static int top = 20;
+
+	/**
+	 * The lineage of a single method. This persists across renames of the
+	 * method itself, and of its enclosing class or file.
+	 */
+	private static class Lineage {
+		/**
+		 * The key under which this method is currently known. That is, its
+		 * qualified class name followed by its signature.
+		 */
+		public String key;
+		/**
+		 * Every key under which this method has been known, oldest first.
+		 */
+		public final ArrayList<String> keys = new ArrayList<>();
+		/**
+		 * Counts the number of commits which touched this method.
+		 */
+		public int commits;
+		/**
+		 * Counts the number of fix commits which touched this method.
+		 */
+		public int fixes;
+		/**
+		 * Counts the number of fix commits which touched this method whilst it
+		 * was of interest.
+		 */
+		public int fixesWhilstOfInterest;
+		/**
+		 * Whether or not this method is currently of interest.
+		 */
+		public boolean ofInterest;
+		/**
+		 * Records each commit where this method became (+) or stopped being (-)
+		 * of interest.
+		 */
+		public final ArrayList<String> history = new ArrayList<>();
+		/**
+		 * Whether or not this method still exists.
+		 */
+		public boolean live = true;
+
+		public Lineage(String key) {
+			this.key = key;
+			this.keys.add(key);
+		}
+
+		public void rename(String key) {
+			this.key = key;
+			this.keys.add(key);
+		}
+	}
+
+	/**
+	 * Summarises a single method declaration within a given blob.
+	 */
+	private static class MethodInfo {
+		public final String key;
+		public final int begin;
+		public final int end;
+		/**
+		 * Hash of the method's body, ignoring whitespace. This is used to
+		 * match up methods which have been renamed or moved. Methods without a
+		 * body have a hash of zero and are never matched.
+		 */
+		public final int bodyHash;
+		public final boolean ofInterest;
+
+		public MethodInfo(String key, int begin, int end, int bodyHash, boolean ofInterest) {
+			this.key = key;
+			this.begin = begin;
+			this.end = end;
+			this.bodyHash = bodyHash;
+			this.ofInterest = ofInterest;
+		}
+	}
+
+	/**
+	 * The state carried through the history walk.
+	 */
+	private static class State {
+		/**
+		 * Maps the current key of every live method to its lineage.
+		 */
+		public final HashMap<String, Lineage> index = new HashMap<>();
+		/**
+		 * Maps the former keys of renamed methods to their lineage. This is
+		 * used to resolve methods touched on a branch under a key which has
+		 * since changed.
+		 */
+		public final HashMap<String, Lineage> former = new HashMap<>();
+		/**
+		 * Every lineage created, including those for methods which no longer
+		 * exist.
+		 */
+		public final ArrayList<Lineage> lineages = new ArrayList<>();
+		/**
+		 * Method summaries for recently seen blobs. Blobs which could not be
+		 * parsed map to null.
+		 */
+		public final LinkedHashMap<ObjectId, List<MethodInfo>> summaries = new LinkedHashMap<ObjectId, List<MethodInfo>>(
+				16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ObjectId, List<MethodInfo>> eldest) {
+				return size() > maxSummaries;
+			}
+		};
+		public int commits;
+		public int fixCommits;
+		public int renames;
+		public int unparseable;
+		public int unresolved;
+	}
+
+	public static void main(String[] args) {
+		BlobStore.configure();
+		try {
+			for (String repo : repositories) {
+				long start = System.currentTimeMillis();
+				System.out.println("Cloning repository " + repo + " ... ");
+				Git git = AssertExperiment.cloneGitRepository(repo);
+				System.out.println("Tracking method lineage in " + repo + " ... ");
+				CommitClassifier classifier = CommitClassifier.load(git.getRepository());
+				State state = trackLineage(git, classifier);
+				long end = System.currentTimeMillis();
+				System.out.println("Finished " + repo + " (" + (end - start) + "ms)");
+				System.out.println("Object access: " + BlobStore.of(git.getRepository()).getStatistics());
+				classifier.report();
+				classifier.close();
+				report(state);
+			}
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Print out the results of tracking the lineage of all methods.
+	 *
+	 * @param state
+	 */
+	private static void report(State state) {
+		int live = 0, fixes = 0, fixesWhilstOfInterest = 0;
+		for (Lineage lineage : state.lineages) {
+			live += lineage.live ? 1 : 0;
+			fixes += lineage.fixes;
+			fixesWhilstOfInterest += lineage.fixesWhilstOfInterest;
+		}
+		System.out.println("Found " + state.commits + " commit(s)");
+		System.out.println("Found " + state.fixCommits + " fix commit(s)");
+		System.out.println("Found " + state.lineages.size() + " method lineage(s), " + live + " live");
+		System.out.println("Found " + state.renames + " rename(s) or move(s)");
+		System.out.println("Found " + state.unparseable + " unparseable file revision(s)");
+		System.out.println("Found " + state.unresolved + " unresolved method touch(es) on merged branches");
+		double ratio = AssertExperiment.ratio(fixesWhilstOfInterest, fixes);
+		System.out.println("Found " + fixes + " method fix(es), " + fixesWhilstOfInterest
+				+ " whilst of interest (" + ratio + "%)");
+		ArrayList<Lineage> sorted = new ArrayList<>(state.lineages);
+		sorted.sort((l1, l2) -> Integer.compare(l2.fixes, l1.fixes));
+		System.out.println("Most fixed method(s):");
+		for (int i = 0; i < top && i < sorted.size() && sorted.get(i).fixes > 0; ++i) {
+			Lineage lineage = sorted.get(i);
+			System.out.println("  " + lineage.fixes + " fix(es) in " + lineage.commits + " commit(s) "
+					+ (lineage.live ? "" : "[deleted] ") + lineage.keys + " " + lineage.history);
+		}
+	}
+
+	/**
+	 * Walk the first-parent history of a given repository, oldest first,
+	 * updating the lineage of every method touched.
+	 *
+	 * @param git
+	 * @param classifier
+	 * @return
+	 * @throws IOException
+	 */
+	private static State trackLineage(Git git, CommitClassifier classifier) throws IOException {
+		Repository repository = git.getRepository();
+		State state = new State();
+		JavaParser parser = new JavaParser();
+		BlobStore store = BlobStore.of(repository);
+		try (RevWalk revWalk = new RevWalk(repository);
+				RevWalk branchWalk = new RevWalk(repository);
+				ObjectReader reader = repository.newObjectReader();
+				DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+			diffFormatter.setRepository(repository);
+			diffFormatter.setContext(0);
+			diffFormatter.setDetectRenames(true);
+			diffFormatter.setPathFilter(PathSuffixFilter.create(".java"));
+			branchWalk.sort(RevSort.TOPO);
+			branchWalk.sort(RevSort.REVERSE, true);
+			ArrayList<RevCommit> mainline = new ArrayList<>();
+			RevCommit rc = revWalk.parseCommit(repository.resolve(Constants.HEAD));
+			mainline.add(rc);
+			while (rc.getParentCount() > 0) {
+				rc = revWalk.parseCommit(rc.getParent(0));
+				mainline.add(rc);
+			}
+			Collections.reverse(mainline);
+			for (RevCommit commit : mainline) {
+				if (commit.getParentCount() > 1) {
+					processMerge(commit, branchWalk, state, classifier, diffFormatter, reader, store, parser);
+				} else {
+					processCommit(commit, revWalk, state, classifier, diffFormatter, reader, store, parser);
+				}
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Update the lineage of all methods touched by a given (non-merge) commit
+	 * on the first-parent chain.
+	 *
+	 * @param rc
+	 * @param revWalk
+	 * @param state
+	 * @param classifier
+	 * @param diffFormatter
+	 * @param reader
+	 * @param store
+	 * @param parser
+	 * @throws IOException
+	 */
+	private static void processCommit(RevCommit rc, RevWalk revWalk, State state, CommitClassifier classifier,
+			DiffFormatter diffFormatter, ObjectReader reader, BlobStore store, JavaParser parser) throws IOException {
+		boolean fix = classifier.classify(rc);
+		state.commits++;
+		state.fixCommits += fix ? 1 : 0;
+		ArrayList<MethodInfo> added = new ArrayList<>();
+		ArrayList<MethodInfo> removed = new ArrayList<>();
+		ArrayList<MethodInfo> touched = new ArrayList<>();
+		extractChanges(rc, revWalk, state, diffFormatter, reader, store, parser, added, removed, touched);
+		updateIdentities(added, removed, state);
+		// Finally, update those methods touched by this commit. Each lineage
+		// is counted at most once, even if it was touched several times.
+		LinkedHashMap<Lineage, MethodInfo> lineages = new LinkedHashMap<>();
+		for (MethodInfo method : touched) {
+			Lineage lineage = state.index.get(method.key);
+			if (lineage == null) {
+				// Can happen if an earlier revision of this file was
+				// unparseable, since only then is a method touched without
+				// ever having been added.
+				lineage = new Lineage(method.key);
+				state.lineages.add(lineage);
+				state.index.put(method.key, lineage);
+			}
+			lineages.putIfAbsent(lineage, method);
+		}
+		recordTouches(rc, fix, lineages);
+	}
+
+	/**
+	 * Update the lineage of all methods touched by the branches which a given
+	 * merge commit brings into the first-parent chain. Each commit on those
+	 * branches (other than merges, whose changes are accounted for by the
+	 * commits being merged) is classified and its touched methods are
+	 * determined. However, identities are only updated using the difference
+	 * between the merge and its first parent, after which the touched methods
+	 * are resolved.
+	 *
+	 * @param merge
+	 * @param branchWalk
+	 * @param state
+	 * @param classifier
+	 * @param diffFormatter
+	 * @param reader
+	 * @param store
+	 * @param parser
+	 * @throws IOException
+	 */
+	private static void processMerge(RevCommit merge, RevWalk branchWalk, State state, CommitClassifier classifier,
+			DiffFormatter diffFormatter, ObjectReader reader, BlobStore store, JavaParser parser) throws IOException {
+		branchWalk.reset();
+		for (int i = 1; i < merge.getParentCount(); ++i) {
+			branchWalk.markStart(branchWalk.parseCommit(merge.getParent(i)));
+		}
+		branchWalk.markUninteresting(branchWalk.parseCommit(merge.getParent(0)));
+		LinkedHashMap<RevCommit, List<MethodInfo>> branches = new LinkedHashMap<>();
+		HashSet<RevCommit> fixes = new HashSet<>();
+		for (RevCommit rc : branchWalk) {
+			if (rc.getParentCount() > 1) {
+				continue;
+			}
+			boolean fix = classifier.classify(rc);
+			state.commits++;
+			state.fixCommits += fix ? 1 : 0;
+			if (fix) {
+				fixes.add(rc);
+			}
+			ArrayList<MethodInfo> touched = new ArrayList<>();
+			extractChanges(rc, branchWalk, state, diffFormatter, reader, store, parser, null, null, touched);
+			branches.put(rc, touched);
+		}
+		ArrayList<MethodInfo> added = new ArrayList<>();
+		ArrayList<MethodInfo> removed = new ArrayList<>();
+		extractChanges(merge, branchWalk, state, diffFormatter, reader, store, parser, added, removed, null);
+		updateIdentities(added, removed, state);
+		for (Map.Entry<RevCommit, List<MethodInfo>> entry : branches.entrySet()) {
+			LinkedHashMap<Lineage, MethodInfo> lineages = new LinkedHashMap<>();
+			for (MethodInfo method : entry.getValue()) {
+				Lineage lineage = state.index.get(method.key);
+				if (lineage == null) {
+					lineage = state.former.get(method.key);
+				}
+				if (lineage == null) {
+					state.unresolved++;
+				} else {
+					lineages.putIfAbsent(lineage, method);
+				}
+			}
+			recordTouches(entry.getKey(), fixes.contains(entry.getKey()), lineages);
+		}
+	}
+
+	/**
+	 * Determine which methods were added, removed or touched by a given commit,
+	 * relative to its first parent. Additions and removals are gathered across
+	 * all files, so that methods moved between files can be matched up. Any of
+	 * the lists may be null, if not required.
+	 *
+	 * @param rc
+	 * @param revWalk
+	 *            The walk from which the commit came
+	 * @param state
+	 * @param diffFormatter
+	 * @param reader
+	 * @param store
+	 * @param parser
+	 * @param added
+	 * @param removed
+	 * @param touched
+	 * @throws IOException
+	 */
+	private static void extractChanges(RevCommit rc, RevWalk revWalk, State state, DiffFormatter diffFormatter,
+			ObjectReader reader, BlobStore store, JavaParser parser, List<MethodInfo> added, List<MethodInfo> removed,
+			List<MethodInfo> touched) throws IOException {
+		List<DiffEntry> diffs;
+		if (rc.getParentCount() == 0) {
+			diffs = diffFormatter.scan(new EmptyTreeIterator(), new CanonicalTreeParser(null, reader, rc.getTree()));
+		} else {
+			diffs = diffFormatter.scan(revWalk.parseCommit(rc.getParent(0)).getTree(), rc.getTree());
+		}
+		for (DiffEntry diff : diffs) {
+			List<MethodInfo> before = null, after = null;
+			if (diff.getChangeType() != DiffEntry.ChangeType.ADD) {
+				before = summarise(diff.getOldId().toObjectId(), state, store, parser);
+				if (before == null) {
+					continue;
+				}
+			}
+			if (diff.getChangeType() != DiffEntry.ChangeType.DELETE) {
+				after = summarise(diff.getNewId().toObjectId(), state, store, parser);
+				if (after == null) {
+					continue;
+				}
+			}
+			HashSet<String> beforeKeys = new HashSet<>();
+			HashSet<String> afterKeys = new HashSet<>();
+			if (before != null) {
+				for (MethodInfo method : before) {
+					beforeKeys.add(method.key);
+				}
+			}
+			if (after != null) {
+				for (MethodInfo method : after) {
+					afterKeys.add(method.key);
+				}
+				// NOTE: toFileHeader() gives a single hunk spanning every edit
+				// in the file, so the edits themselves must be used.
+				EditList edits = touched == null ? null : diffFormatter.toFileHeader(diff).toEditList();
+				for (MethodInfo method : after) {
+					if (added != null && !beforeKeys.contains(method.key)) {
+						added.add(method);
+					}
+					if (touched != null && hasSourceOverlap(method, edits)) {
+						touched.add(method);
+					}
+				}
+			}
+			if (before != null && removed != null) {
+				for (MethodInfo method : before) {
+					if (!afterKeys.contains(method.key)) {
+						removed.add(method);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record that a given commit touched each of the given lineages, along
+	 * with the method as it was after that commit.
+	 *
+	 * @param rc
+	 * @param fix
+	 *            Whether or not the commit is a fix
+	 * @param lineages
+	 */
+	private static void recordTouches(RevCommit rc, boolean fix, Map<Lineage, MethodInfo> lineages) {
+		String name = rc.abbreviate(7).name();
+		for (Map.Entry<Lineage, MethodInfo> entry : lineages.entrySet()) {
+			Lineage lineage = entry.getKey();
+			MethodInfo method = entry.getValue();
+			lineage.commits++;
+			if (fix) {
+				lineage.fixes++;
+				lineage.fixesWhilstOfInterest += method.ofInterest ? 1 : 0;
+			}
+			if (lineage.ofInterest != method.ofInterest || lineage.commits == 1) {
+				lineage.ofInterest = method.ofInterest;
+				lineage.history.add(name + (method.ofInterest ? "+" : "-"));
+			}
+		}
+	}
+
+	/**
+	 * Update the index of live methods given those added and removed by a
+	 * commit. An added method whose key is already known simply continues
+	 * that lineage (e.g. a class moved without its file being detected as
+	 * renamed). Otherwise, it is matched against a removed method with the same
+	 * body where possible and, failing that, given a fresh lineage. Removed
+	 * methods which were not matched are no longer live.
+	 *
+	 * @param added
+	 * @param removed
+	 * @param state
+	 */
+	private static void updateIdentities(List<MethodInfo> added, List<MethodInfo> removed, State state) {
+		HashSet<String> addedKeys = new HashSet<>();
+		for (MethodInfo method : added) {
+			addedKeys.add(method.key);
+		}
+		HashMap<Integer, ArrayDeque<MethodInfo>> candidates = new HashMap<>();
+		for (MethodInfo method : removed) {
+			if (!addedKeys.contains(method.key) && state.index.containsKey(method.key)) {
+				candidates.computeIfAbsent(method.bodyHash, h -> new ArrayDeque<>()).add(method);
+			}
+		}
+		for (MethodInfo method : added) {
+			if (state.index.containsKey(method.key)) {
+				continue;
+			}
+			ArrayDeque<MethodInfo> matches = method.bodyHash == 0 ? null : candidates.get(method.bodyHash);
+			Lineage lineage;
+			if (matches != null && !matches.isEmpty()) {
+				String key = matches.poll().key;
+				lineage = state.index.remove(key);
+				state.former.put(key, lineage);
+				lineage.rename(method.key);
+				state.renames++;
+			} else {
+				lineage = new Lineage(method.key);
+				state.lineages.add(lineage);
+			}
+			state.index.put(method.key, lineage);
+		}
+		for (ArrayDeque<MethodInfo> unmatched : candidates.values()) {
+			for (MethodInfo method : unmatched) {
+				state.index.remove(method.key).live = false;
+			}
+		}
+	}
+
+	/**
+	 * Check whether or not a given method overlaps with any of a given list of
+	 * edits. The lines of an edit in the new revision are
+	 * <code>[beginB, endB)</code>, counting from zero, whilst those of a method
+	 * are <code>[begin, end]</code>, counting from one. An edit which only
+	 * deletes lines has an empty range, and is taken to touch the method if
+	 * the lines either side of the deletion both belong to it.
+	 *
+	 * @param method
+	 * @param edits
+	 * @return
+	 */
+	private static boolean hasSourceOverlap(MethodInfo method, List<Edit> edits) {
+		for (Edit edit : edits) {
+			if (edit.getBeginB() == edit.getEndB()) {
+				if (method.begin <= edit.getBeginB() && edit.getBeginB() < method.end) {
+					return true;
+				}
+			} else if (edit.getBeginB() < method.end && edit.getEndB() >= method.begin) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the summary of all methods in a given blob, parsing it if it is not
+	 * already cached. This returns null if the blob cannot be parsed.
+	 *
+	 * @param id
+	 * @param state
+	 * @param store
+	 * @param parser
+	 * @return
+	 * @throws IOException
+	 */
+	private static List<MethodInfo> summarise(ObjectId id, State state, BlobStore store, JavaParser parser)
+			throws IOException {
+		if (state.summaries.containsKey(id)) {
+			return state.summaries.get(id);
+		}
+		List<MethodInfo> summary;
+		try {
+			BlobStore.Blob blob = store.load(id);
+			CompilationUnit cu = AssertExperiment.parseCompilationUnit(blob, parser);
+			String[] lines = new String(blob.bytes, 0, blob.length, StandardCharsets.UTF_8).split("\n", -1);
+			ArrayList<MethodDeclaration> methods = new ArrayList<>();
+			AssertExperiment.extractMethods(cu, methods);
+			summary = new ArrayList<>();
+			for (MethodDeclaration method : methods) {
+				String key = qualifiedName(method) + "." + method.getSignature().asString();
+				int bodyHash = method.getBody().map(b -> hash(b, lines)).orElse(0);
+				summary.add(new MethodInfo(key, method.getBegin().get().line, method.getEnd().get().line, bodyHash,
+						AssertExperiment.isOfInterest(method)));
+			}
+		} catch (ParseProblemException e) {
+			state.unparseable++;
+			summary = null;
+		}
+		state.summaries.put(id, summary);
+		return summary;
+	}
+
+	/**
+	 * Determine the qualified name of the class enclosing a given method. This
+	 * includes the package and any enclosing classes. Anonymous classes are
+	 * identified by the member which encloses them (e.g.
+	 * <code>p.C.run().new Runnable</code>) and enum constants with bodies by
+	 * their name, so that their methods do not share keys.
+	 *
+	 * @param method
+	 * @return
+	 */
+	private static String qualifiedName(MethodDeclaration method) {
+		StringBuilder name = new StringBuilder();
+		Node node = method.getParentNode().orElse(null);
+		while (node != null) {
+			String segment = null;
+			if (node instanceof TypeDeclaration) {
+				segment = ((TypeDeclaration<?>) node).getNameAsString();
+			} else if (node instanceof EnumConstantDeclaration) {
+				segment = ((EnumConstantDeclaration) node).getNameAsString();
+			} else if (node instanceof ObjectCreationExpr) {
+				segment = anonymousName((ObjectCreationExpr) node);
+			} else if (node instanceof CompilationUnit) {
+				segment = ((CompilationUnit) node).getPackageDeclaration().map(p -> p.getNameAsString()).orElse(null);
+			}
+			if (segment != null) {
+				name.insert(0, name.length() == 0 ? segment : segment + ".");
+			}
+			node = node.getParentNode().orElse(null);
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Determine the name of a given anonymous class. This consists of the
+	 * member enclosing it (i.e. a method, constructor, field or initialiser)
+	 * and its type. Where the same member contains several anonymous classes
+	 * of that type, an ordinal is added (e.g. <code>f().new Runnable#2</code>).
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private static String anonymousName(ObjectCreationExpr expr) {
+		Node member = enclosingMember(expr);
+		String type = expr.getType().getNameAsString();
+		String name = "new " + type;
+		if (member instanceof CallableDeclaration) {
+			name = ((CallableDeclaration<?>) member).getSignature().asString() + "." + name;
+		} else if (member instanceof VariableDeclarator) {
+			name = ((VariableDeclarator) member).getNameAsString() + "." + name;
+		} else if (member instanceof InitializerDeclaration) {
+			name = (((InitializerDeclaration) member).isStatic() ? "<clinit>" : "<init>") + "." + name;
+		}
+		if (member != null) {
+			List<ObjectCreationExpr> siblings = member.findAll(ObjectCreationExpr.class,
+					e -> e.getAnonymousClassBody().isPresent() && e.getType().getNameAsString().equals(type)
+							&& enclosingMember(e) == member);
+			if (siblings.size() > 1) {
+				for (int i = 0; i != siblings.size(); ++i) {
+					if (siblings.get(i) == expr) {
+						name = name + "#" + (i + 1);
+					}
+				}
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Determine the member (i.e. method, constructor, field or initialiser)
+	 * which most closely encloses a given node, or null if there is none.
+	 *
+	 * @param node
+	 * @return
+	 */
+	private static Node enclosingMember(Node node) {
+		node = node.getParentNode().orElse(null);
+		while (node != null && !(node instanceof TypeDeclaration)) {
+			if (node instanceof CallableDeclaration || node instanceof InitializerDeclaration
+					|| (node instanceof VariableDeclarator && node.getParentNode().orElse(null) instanceof FieldDeclaration)) {
+				return node;
+			}
+			node = node.getParentNode().orElse(null);
+		}
+		return null;
+	}
+
+	/**
+	 * Hash the source text of a given method body, ignoring whitespace.
+	 *
+	 * @param body
+	 * @param lines
+	 *            The lines of the enclosing source file
+	 * @return
+	 */
+	private static int hash(BlockStmt body, String[] lines) {
+		Position begin = body.getBegin().get();
+		Position end = body.getEnd().get();
+		int hash = 1;
+		for (int line = begin.line; line <= end.line && line <= lines.length; ++line) {
+			String text = lines[line - 1];
+			int from = line == begin.line ? Math.min(begin.column - 1, text.length()) : 0;
+			int to = line == end.line ? Math.min(end.column, text.length()) : text.length();
+			for (int i = from; i < to; ++i) {
+				char c = text.charAt(i);
+				if (!Character.isWhitespace(c)) {
+					hash = 31 * hash + c;
+				}
+			}
+		}
+		return hash == 0 ? 1 : hash;
+	}
+}
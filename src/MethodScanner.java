@@ -0,0 +1,776 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.stmt.AssertStmt;
+import com.github.javaparser.ast.stmt.DoStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.ForeachStmt;
+import com.github.javaparser.ast.stmt.ThrowStmt;
+import com.github.javaparser.ast.stmt.WhileStmt;
+
+/**
+ * A lightweight scanner which locates method declarations in a Java source
+ * file without building an Abstract Syntax Tree. This works at the level of
+ * tokens, and simply tracks enough of the brace and parenthesis structure to
+ * identify method declarations and their begin / end lines. At the same time,
+ * it records a few cheap features of each method body (e.g. whether it
+ * contains an <code>assert</code>). This is sufficient for mapping hunks to
+ * methods, and for predicates which only need these features, at a fraction
+ * of the cost of a full parse.
+ *
+ * The methods found are intended to be exactly those which
+ * <code>extractMethods()</code> finds using JavaParser. That is, the outermost
+ * method declarations (so not constructors, and not methods of classes nested
+ * within methods), in source order. Running this class checks that this is
+ * indeed the case against JavaParser, for every source file at HEAD of the
+ * given repositories.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class MethodScanner {
+
+	private static String[] repositories = {
+			//"file:///Users/djp/projects/Jasm/",
+			"file:///Users/djp/projects/Whiley/"
+			};
+
+	/**
+	 * Indicates a method contains an <code>assert</code> statement.
+	 */
+	public static final int ASSERT = 1;
+	/**
+	 * Indicates a method contains <code>throw new IllegalArgumentException</code>.
+	 */
+	public static final int THROW_NEW_ILLEGAL_ARGUMENT_EXCEPTION = 2;
+	/**
+	 * Indicates a method contains the <code>while</code> keyword (which
+	 * includes <code>do</code>-<code>while</code> loops).
+	 */
+	public static final int WHILE = 4;
+	/**
+	 * Indicates a method contains the <code>for</code> keyword (which includes
+	 * enhanced for loops).
+	 */
+	public static final int FOR = 8;
+
+	/**
+	 * A method declaration found by the scanner.
+	 */
+	public static class Method {
+		public final String name;
+		public final int begin;
+		public final int end;
+		public final int flags;
+
+		public Method(String name, int begin, int end, int flags) {
+			this.name = name;
+			this.begin = begin;
+			this.end = end;
+			this.flags = flags;
+		}
+
+		public boolean has(int flag) {
+			return (flags & flag) != 0;
+		}
+
+		@Override
+		public String toString() {
+			return name + "@" + begin + "-" + end + "#" + flags;
+		}
+	}
+
+	public static void main(String[] args) {
+		BlobStore.configure();
+		try {
+			for (String repo : repositories) {
+				System.out.println("Cloning repository " + repo + " ... ");
+				Git git = AssertExperiment.cloneGitRepository(repo);
+				System.out.println("Cross-checking scanner against parser for " + repo + " ... ");
+				crossCheck(git);
+			}
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Check that the scanner agrees with JavaParser for every source file at
+	 * HEAD of a given repository. Any disagreements are reported, along with
+	 * the time spent in each.
+	 *
+	 * @param git
+	 * @throws IOException
+	 */
+	private static void crossCheck(Git git) throws IOException {
+		Repository repository = git.getRepository();
+		int files = 0, unparseable = 0, methods = 0, mismatches = 0;
+		long scanTime = 0, parseTime = 0;
+		JavaParser parser = new JavaParser();
+		BlobStore store = BlobStore.of(repository);
+		try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+			RevCommit commit = revWalk.parseCommit(repository.resolve(Constants.HEAD));
+			treeWalk.addTree(commit.getTree());
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(PathSuffixFilter.create(".java"));
+			while (treeWalk.next()) {
+				ObjectId id = treeWalk.getObjectId(0);
+				BlobStore.Blob blob = store.load(id);
+				files++;
+				long start = System.nanoTime();
+				List<Method> scanned = scan(blob.bytes, blob.length);
+				long middle = System.nanoTime();
+				CompilationUnit cu;
+				try {
+					cu = AssertExperiment.parseCompilationUnit(blob, parser);
+				} catch (ParseProblemException e) {
+					unparseable++;
+					continue;
+				}
+				ArrayList<MethodDeclaration> parsed = new ArrayList<>();
+				AssertExperiment.extractMethods(cu, parsed);
+				long end = System.nanoTime();
+				scanTime += middle - start;
+				parseTime += end - middle;
+				methods += parsed.size();
+				String mismatch = compare(scanned, parsed);
+				if (mismatch != null) {
+					mismatches++;
+					System.out.println("Mismatch in " + treeWalk.getPathString() + ": " + mismatch);
+				}
+			}
+		}
+		System.out.println("Checked " + files + " file(s) (" + unparseable + " unparseable), " + methods
+				+ " method(s), " + mismatches + " mismatch(es)");
+		System.out.println("Scanning took " + (scanTime / 1000000) + "ms, parsing took " + (parseTime / 1000000)
+				+ "ms");
+	}
+
+	/**
+	 * Compare the methods found by the scanner with those found by the
+	 * parser, returning a description of the first difference (or null if
+	 * there is none).
+	 *
+	 * @param scanned
+	 * @param parsed
+	 * @return
+	 */
+	private static String compare(List<Method> scanned, List<MethodDeclaration> parsed) {
+		if (scanned == null) {
+			return "scanner failed";
+		}
+		// JavaParser visits the members of an enum before the bodies of its
+		// constants, so compare in source order.
+		parsed = new ArrayList<>(parsed);
+		parsed.sort((m1, m2) -> Integer.compare(m1.getBegin().get().line, m2.getBegin().get().line));
+		for (int i = 0; i != Math.max(scanned.size(), parsed.size()); ++i) {
+			if (i >= scanned.size()) {
+				return "scanner missed " + parsed.get(i).getNameAsString() + "@" + parsed.get(i).getBegin().get().line;
+			} else if (i >= parsed.size()) {
+				return "scanner invented " + scanned.get(i);
+			}
+			Method s = scanned.get(i);
+			MethodDeclaration p = parsed.get(i);
+			int flags = (contains(p, AssertStmt.class) ? ASSERT : 0)
+					| (hasThrowNewIllegalArgumentException(p) ? THROW_NEW_ILLEGAL_ARGUMENT_EXCEPTION : 0)
+					| (contains(p, WhileStmt.class) || contains(p, DoStmt.class) ? WHILE : 0)
+					| (contains(p, ForStmt.class) || contains(p, ForeachStmt.class) ? FOR : 0);
+			if (!s.name.equals(p.getNameAsString()) || s.begin != p.getBegin().get().line
+					|| s.end != p.getEnd().get().line || s.flags != flags) {
+				return "expected " + p.getNameAsString() + "@" + p.getBegin().get().line + "-"
+						+ p.getEnd().get().line + "#" + flags + ", found " + s;
+			}
+		}
+		return null;
+	}
+
+	private static boolean contains(Node node, Class<? extends Node> kind) {
+		if (kind.isInstance(node)) {
+			return true;
+		}
+		for (Node child : node.getChildNodes()) {
+			if (contains(child, kind)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasThrowNewIllegalArgumentException(Node node) {
+		if (node instanceof ThrowStmt && ((ThrowStmt) node).getExpression() instanceof ObjectCreationExpr) {
+			ObjectCreationExpr e = (ObjectCreationExpr) ((ThrowStmt) node).getExpression();
+			if (e.getType().getNameAsString().equals(IllegalArgumentException.class.getSimpleName())) {
+				return true;
+			}
+		}
+		for (Node child : node.getChildNodes()) {
+			if (hasThrowNewIllegalArgumentException(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// =========================================================================
+	// Scanner
+	// =========================================================================
+
+	private static final int WORD = 0;
+	private static final int LITERAL = 1;
+	private static final int PUNCTUATION = 2;
+
+	/**
+	 * A token within the current statement or declaration of a frame.
+	 */
+	private static class Token {
+		public final int kind;
+		public final String text;
+		public final char symbol;
+		public final int line;
+		/**
+		 * The parenthesis depth at which this token occurs (within its frame).
+		 */
+		public int depth;
+		/**
+		 * For a closing parenthesis, the index of the matching opening one.
+		 */
+		public int match = -1;
+
+		public Token(int kind, String text, char symbol, int line) {
+			this.kind = kind;
+			this.text = text;
+			this.symbol = symbol;
+			this.line = line;
+		}
+
+		public boolean is(char c) {
+			return kind == PUNCTUATION && symbol == c;
+		}
+
+		public boolean is(String word) {
+			return kind == WORD && text.equals(word);
+		}
+	}
+
+	/**
+	 * A class, interface or enum body. Declarations within these are examined
+	 * to identify methods.
+	 */
+	private static final int TYPE = 0;
+	/**
+	 * An annotation type body. This is like a type body, except that its
+	 * members are not method declarations.
+	 */
+	private static final int ANNOTATION = 1;
+	/**
+	 * Any other code block (e.g. a constructor, initialiser or lambda body).
+	 * These are examined only for anonymous and local classes.
+	 */
+	private static final int CODE = 2;
+	/**
+	 * The body of a method. This is examined only for its features.
+	 */
+	private static final int METHOD = 3;
+
+	/**
+	 * Represents an enclosing pair of braces.
+	 */
+	private static class Frame {
+		public final int kind;
+		/**
+		 * Name of the enclosing type (which identifies its constructors), or
+		 * null if anonymous.
+		 */
+		public final String name;
+		/**
+		 * Tokens in the current declaration or statement.
+		 */
+		public final ArrayList<Token> tokens = new ArrayList<>();
+		/**
+		 * Indices of unclosed opening parentheses.
+		 */
+		public final ArrayList<Integer> parens = new ArrayList<>();
+		/**
+		 * Indicates an enum body whose constants have not yet been terminated.
+		 */
+		public boolean constants;
+		/**
+		 * Indicates the current declaration has an initialiser.
+		 */
+		public boolean initialiser;
+		// For method bodies only
+		public String method;
+		public int begin;
+		public int flags;
+		public int braces;
+		public int throwState;
+		public String thrown;
+
+		public Frame(int kind, String name) {
+			this.kind = kind;
+			this.name = name;
+		}
+
+		public void reset() {
+			tokens.clear();
+			parens.clear();
+			initialiser = false;
+		}
+	}
+
+	/**
+	 * Scan a given Java source file for method declarations, where the file
+	 * occupies the first <code>length</code> bytes of the array. This returns
+	 * null if the file appears malformed (e.g. its braces do not balance), in
+	 * which case a full parse should be used instead.
+	 *
+	 * @param bytes
+	 *            Contents of the source file
+	 * @param length
+	 *            Number of bytes in the source file
+	 * @return
+	 */
+	public static List<Method> scan(byte[] bytes, int length) {
+		ArrayList<Method> methods = new ArrayList<>();
+		ArrayList<Frame> frames = new ArrayList<>();
+		frames.add(new Frame(CODE, null));
+		int line = 1;
+		int i = 0;
+		final int n = length;
+		while (i < n) {
+			int b = bytes[i] & 0xFF;
+			if (b == '\n') {
+				line++;
+				i++;
+			} else if (b == ' ' || b == '\t' || b == '\r' || b == '\f') {
+				i++;
+			} else if (b == '/' && i + 1 < n && bytes[i + 1] == '/') {
+				while (i < n && bytes[i] != '\n') {
+					i++;
+				}
+			} else if (b == '/' && i + 1 < n && bytes[i + 1] == '*') {
+				i += 2;
+				while (i < n && !(bytes[i] == '*' && i + 1 < n && bytes[i + 1] == '/')) {
+					line += bytes[i] == '\n' ? 1 : 0;
+					i++;
+				}
+				i += 2;
+			} else if (b == '"' || b == '\'') {
+				int start = line;
+				if (b == '"' && i + 2 < n && bytes[i + 1] == '"' && bytes[i + 2] == '"') {
+					// Text block
+					i += 3;
+					while (i < n && !(bytes[i] == '"' && i + 2 < n && bytes[i + 1] == '"' && bytes[i + 2] == '"')) {
+						line += bytes[i] == '\n' ? 1 : 0;
+						i += bytes[i] == '\\' ? 2 : 1;
+					}
+					i += 3;
+				} else {
+					i++;
+					while (i < n && bytes[i] != b && bytes[i] != '\n') {
+						i += bytes[i] == '\\' ? 2 : 1;
+					}
+					i++;
+				}
+				token(new Token(LITERAL, null, (char) 0, start), frames, methods);
+			} else if (isIdentifierStart(b)) {
+				int start = i;
+				while (i < n && isIdentifierPart(bytes[i] & 0xFF)) {
+					i++;
+				}
+				String word = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+				token(new Token(WORD, word, (char) 0, line), frames, methods);
+			} else if (b >= '0' && b <= '9') {
+				while (i < n && (isIdentifierPart(bytes[i] & 0xFF) || bytes[i] == '.')) {
+					i++;
+				}
+				token(new Token(LITERAL, null, (char) 0, line), frames, methods);
+			} else {
+				i++;
+				token(new Token(PUNCTUATION, null, (char) b, line), frames, methods);
+			}
+			if (frames.isEmpty()) {
+				// Unbalanced closing brace
+				return null;
+			}
+		}
+		return frames.size() == 1 ? methods : null;
+	}
+
+	private static boolean isIdentifierStart(int b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == '$' || b >= 0x80;
+	}
+
+	private static boolean isIdentifierPart(int b) {
+		return isIdentifierStart(b) || (b >= '0' && b <= '9');
+	}
+
+	/**
+	 * Process the next token of the source file.
+	 *
+	 * @param token
+	 * @param frames
+	 * @param methods
+	 */
+	private static void token(Token token, ArrayList<Frame> frames, List<Method> methods) {
+		Frame frame = frames.get(frames.size() - 1);
+		if (frame.kind == METHOD) {
+			methodToken(token, frame, frames, methods);
+			return;
+		}
+		Token t = token;
+		t.depth = frame.parens.size();
+		if (t.is('{')) {
+			frames.add(open(frame));
+		} else if (t.is('}')) {
+			frames.remove(frames.size() - 1);
+			if (!frames.isEmpty()) {
+				close(frames.get(frames.size() - 1), t);
+			}
+		} else if (t.is(';') && frame.parens.isEmpty()) {
+			if (frame.kind == TYPE && !frame.constants && !frame.initialiser) {
+				Method m = abstractMethod(frame, t.line);
+				if (m != null) {
+					methods.add(m);
+				}
+			}
+			frame.constants = false;
+			frame.reset();
+		} else if (t.is(',') && frame.parens.isEmpty() && frame.constants) {
+			frame.reset();
+		} else if (t.is('(')) {
+			frame.parens.add(frame.tokens.size());
+			frame.tokens.add(t);
+		} else if (t.is(')')) {
+			if (!frame.parens.isEmpty()) {
+				t.match = frame.parens.remove(frame.parens.size() - 1);
+				t.depth = frame.parens.size();
+			}
+			frame.tokens.add(t);
+		} else {
+			if (t.is('=') && frame.parens.isEmpty()) {
+				frame.initialiser = true;
+			}
+			frame.tokens.add(t);
+		}
+	}
+
+	/**
+	 * Determine the kind of frame opened by a brace in a given frame.
+	 *
+	 * @param frame
+	 * @return
+	 */
+	private static Frame open(Frame frame) {
+		if (isAnonymousClass(frame)) {
+			return new Frame(TYPE, null);
+		} else if (frame.kind == CODE || frame.initialiser || !frame.parens.isEmpty()) {
+			Frame local = localType(frame);
+			return local != null ? local : new Frame(CODE, null);
+		} else if (frame.constants) {
+			// An enum constant with a body
+			return new Frame(TYPE, null);
+		}
+		Frame type = localType(frame);
+		if (type != null) {
+			return type;
+		}
+		Token name = methodName(frame);
+		if (name == null || frame.kind == ANNOTATION) {
+			// Initialiser block, or something not understood
+			return new Frame(CODE, null);
+		} else if (isConstructor(frame, name)) {
+			return new Frame(CODE, null);
+		}
+		Frame method = new Frame(METHOD, null);
+		method.method = name.text;
+		method.begin = frame.tokens.get(0).line;
+		method.braces = 1;
+		return method;
+	}
+
+	/**
+	 * Update a frame after one of its children has been closed.
+	 *
+	 * @param frame
+	 * @param brace
+	 */
+	private static void close(Frame frame, Token brace) {
+		// The brace may have closed something within an expression (e.g. an
+		// anonymous class or lambda), in which case the enclosing declaration
+		// or statement continues.
+		boolean expression = frame.initialiser || !frame.parens.isEmpty() || frame.constants;
+		for (Token t : frame.tokens) {
+			expression |= t.depth == 0 && t.is("return");
+		}
+		int size = frame.tokens.size();
+		if (size >= 2) {
+			// Lambda body
+			expression |= frame.tokens.get(size - 2).is('-') && frame.tokens.get(size - 1).is('>');
+		}
+		if (expression) {
+			frame.tokens.add(brace);
+		} else {
+			frame.reset();
+		}
+	}
+
+	/**
+	 * Check whether a brace opens the body of an anonymous class. That is,
+	 * whether it immediately follows <code>new T(...)</code>.
+	 *
+	 * @param frame
+	 * @return
+	 */
+	private static boolean isAnonymousClass(Frame frame) {
+		ArrayList<Token> tokens = frame.tokens;
+		if (tokens.isEmpty() || !tokens.get(tokens.size() - 1).is(')')) {
+			return false;
+		}
+		int i = tokens.get(tokens.size() - 1).match - 1;
+		while (i >= 0) {
+			Token t = tokens.get(i);
+			if (t.is("new")) {
+				return true;
+			} else if (t.kind == WORD || t.is('.') || t.is('<') || t.is('>') || t.is(',') || t.is('?')
+					|| t.is('[') || t.is(']')) {
+				i--;
+			} else {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether a brace opens the body of a class, interface, enum or
+	 * annotation type declared by the current declaration.
+	 *
+	 * @param frame
+	 * @return
+	 */
+	private static Frame localType(Frame frame) {
+		ArrayList<Token> tokens = frame.tokens;
+		for (int i = 0; i + 1 < tokens.size(); ++i) {
+			Token t = tokens.get(i);
+			if (t.depth != 0 || (i > 0 && tokens.get(i - 1).is('.'))) {
+				continue;
+			}
+			Token next = tokens.get(i + 1);
+			if (t.is("class") || t.is("interface") || t.is("enum")) {
+				if (next.kind == WORD) {
+					boolean annotation = t.is("interface") && i > 0 && tokens.get(i - 1).is('@');
+					Frame type = new Frame(annotation ? ANNOTATION : TYPE, next.text);
+					type.constants = t.is("enum");
+					return type;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determine whether the current declaration of a type body declares a
+	 * method or constructor and, if so, return its name. A declaration is
+	 * considered to do so if its last (top-level) parenthesised group is
+	 * immediately preceded by a name, and followed by nothing other than array
+	 * dimensions or a <code>throws</code> clause.
+	 *
+	 * @param frame
+	 * @return
+	 */
+	private static Token methodName(Frame frame) {
+		ArrayList<Token> tokens = frame.tokens;
+		int i = tokens.size() - 1;
+		// Skip any throws clause or array dimensions
+		int close = -1;
+		for (int j = i; j >= 0; --j) {
+			Token t = tokens.get(j);
+			if (t.depth == 0 && t.is(')')) {
+				close = j;
+				break;
+			}
+		}
+		if (close < 0) {
+			return null;
+		}
+		for (int j = close + 1; j <= i; ++j) {
+			Token t = tokens.get(j);
+			if (t.is("throws")) {
+				break;
+			} else if (!t.is('[') && !t.is(']')) {
+				return null;
+			}
+		}
+		int open = tokens.get(close).match;
+		if (open < 1) {
+			return null;
+		}
+		Token name = tokens.get(open - 1);
+		if (name.kind != WORD || isKeyword(name.text)) {
+			return null;
+		}
+		if (open >= 2) {
+			Token before = tokens.get(open - 2);
+			if (before.is('@') || before.is('.') || before.is("new")) {
+				return null;
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Check whether a method-like declaration is actually a constructor. That
+	 * is, whether it has the name of the enclosing type and no return type.
+	 * Note that a method may have the same name as its enclosing type.
+	 *
+	 * @param frame
+	 * @param name
+	 * @return
+	 */
+	private static boolean isConstructor(Frame frame, Token name) {
+		if (!name.text.equals(frame.name)) {
+			return false;
+		}
+		ArrayList<Token> tokens = frame.tokens;
+		int i = tokens.indexOf(name) - 1;
+		if (i >= 0 && tokens.get(i).is('>')) {
+			// Skip type parameters
+			int depth = 0;
+			do {
+				depth += tokens.get(i).is('>') ? 1 : tokens.get(i).is('<') ? -1 : 0;
+				i--;
+			} while (i >= 0 && depth > 0);
+		}
+		if (i < 0) {
+			return true;
+		}
+		Token before = tokens.get(i);
+		if (before.is(')') || (i > 0 && tokens.get(i - 1).is('@'))) {
+			// Annotation
+			return true;
+		} else if (before.kind == WORD) {
+			switch (before.text) {
+			case "public":
+			case "protected":
+			case "private":
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isKeyword(String word) {
+		switch (word) {
+		case "if":
+		case "while":
+		case "for":
+		case "switch":
+		case "catch":
+		case "synchronized":
+		case "try":
+		case "return":
+		case "throw":
+		case "new":
+		case "super":
+		case "this":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Check whether a declaration terminated by a semi-colon in a type body is
+	 * a method without a body (i.e. an abstract, native or interface method).
+	 *
+	 * @param frame
+	 * @param line
+	 * @return
+	 */
+	private static Method abstractMethod(Frame frame, int line) {
+		Token name = methodName(frame);
+		if (name == null || isConstructor(frame, name)) {
+			return null;
+		}
+		return new Method(name.text, frame.tokens.get(0).line, line, 0);
+	}
+
+	/**
+	 * Process a token within the body of a method. This tracks the nesting of
+	 * braces to find the end of the method, along with the features of
+	 * interest.
+	 *
+	 * @param t
+	 * @param frame
+	 * @param frames
+	 * @param methods
+	 */
+	private static void methodToken(Token t, Frame frame, ArrayList<Frame> frames, List<Method> methods) {
+		if (t.is('{')) {
+			frame.braces++;
+		} else if (t.is('}') && --frame.braces == 0) {
+			methods.add(new Method(frame.method, frame.begin, t.line, frame.flags));
+			frames.remove(frames.size() - 1);
+			frames.get(frames.size() - 1).reset();
+			return;
+		} else if (t.kind == WORD) {
+			switch (t.text) {
+			case "assert":
+				frame.flags |= ASSERT;
+				break;
+			case "while":
+				frame.flags |= WHILE;
+				break;
+			case "for":
+				frame.flags |= FOR;
+				break;
+			}
+		}
+		// Look for "throw new [qualified.]IllegalArgumentException("
+		switch (frame.throwState) {
+		case 0:
+			frame.throwState = t.is("throw") ? 1 : 0;
+			break;
+		case 1:
+			frame.throwState = t.is("new") ? 2 : 0;
+			break;
+		case 2:
+			if (t.kind == WORD) {
+				frame.thrown = t.text;
+				frame.throwState = 3;
+			} else {
+				frame.throwState = 0;
+			}
+			break;
+		case 3:
+			if (t.is('.')) {
+				frame.throwState = 2;
+			} else {
+				if (t.is('(') && frame.thrown.equals("IllegalArgumentException")) {
+					frame.flags |= THROW_NEW_ILLEGAL_ARGUMENT_EXCEPTION;
+				}
+				frame.throwState = t.is("throw") ? 1 : 0;
+			}
+			break;
+		}
+	}
+}
@@ -0,0 +1,675 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.FileUtils;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Runs the experiments end-to-end against repositories of increasing size, in
+ * order to catch performance cliffs before they are hit on real histories.
+ * Repositories are generated locally with a given number of commits (and kept
+ * for subsequent runs), although existing fixture repositories can also be
+ * included. For each experiment and repository, the throughput of commits
+ * (per second of the run) and of source files parsed or scanned (per second
+ * spent parsing), the peak live heap and the time spent in garbage collection
+ * are measured.
+ *
+ * Each run is appended as one line of JSON to a results file, so that trends
+ * can be compared across versions of the tools. Runs are then checked against
+ * the budgets recorded in a budgets file, and the process exits with a nonzero
+ * status if any budget is exceeded, or if the budgets file (or a budget for
+ * some run) is missing. Each line of the budgets file has the form
+ * <code>experiment repository metric limit</code>, where the metric is one of
+ * <code>commitsPerSecond</code> or <code>parsesPerSecond</code> (for which the
+ * limit is a minimum), or <code>liveHeapMB</code> or <code>gcMillis</code>
+ * (for which it is a maximum). The live heap is measured after garbage
+ * collection, so that it does not depend on how large the young generation
+ * is, or on how much garbage happens to be uncollected.
+ *
+ * The arguments are a mode, which is either <code>check</code> (the default)
+ * or <code>record</code> to overwrite the budgets file with budgets derived
+ * from this run, followed by any of <code>sizes</code> (e.g.
+ * <code>sizes=1000,10000</code>), <code>budgets</code>, <code>results</code>,
+ * <code>threads</code> or the settings of <code>BlobStore</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ScalabilityBenchmark {
+
+	/**
+	 * The number of commits in each generated repository.
+	 */
+	private static int[] sizes = { 1000, 10000, 100000 };
+
+	/**
+	 * Existing repositories to include, in addition to those generated.
+	 */
+	private static String[] fixtures = {
+			//"file:///Users/djp/projects/Whiley/"
+			};
+
+	/**
+	 * The directory where generated repositories are kept.
+	 */
+	private static String fixtureDirectory = System.getProperty("java.io.tmpdir") + File.separator
+			+ "scalability-fixtures";
+
+	/**
+	 * The number of source files in each generated repository.
+	 */
+	private static int files = 100;
+
+	/**
+	 * The maximum number of methods in each generated source file.
+	 */
+	private static int maxMethods = 20;
+
+	/**
+	 * Identifies the version of the repository generator. This must be
+	 * incremented whenever the generated content changes, since it forms part
+	 * of the name of each generated repository (along with its parameters) and
+	 * so ensures that stale repositories are not reused.
+	 */
+	private static final int GENERATOR_VERSION = 2;
+
+	/**
+	 * The number of commits generated before their objects are packed. This
+	 * bounds the number of loose objects when generating a repository.
+	 */
+	private static int batchSize = 5000;
+
+	/**
+	 * The number of worker threads used by the experiments.
+	 */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The file to which results are appended.
+	 */
+	private static String resultsFile = "scalability-results.jsonl";
+
+	/**
+	 * The file from which budgets are loaded.
+	 */
+	private static String budgetsFile = "scalability-budgets.txt";
+
+	/**
+	 * Determines whether the budgets file is overwritten with budgets derived
+	 * from this run, rather than this run being checked against it.
+	 */
+	private static boolean recordBudgets = false;
+
+	/**
+	 * The factor by which recorded budgets are relaxed relative to the run
+	 * they are recorded from, to allow for noise.
+	 */
+	private static double slack = 2.0;
+
+	private static final String[] METRICS = { "commitsPerSecond", "parsesPerSecond", "liveHeapMB", "gcMillis" };
+
+	/**
+	 * An experiment to be measured, which returns the number of commits it
+	 * processed.
+	 */
+	private interface Experiment {
+		public int run(String name, Git git, ExecutorService executor) throws Exception;
+	}
+
+	/**
+	 * The measurements from running a single experiment on a single
+	 * repository.
+	 */
+	private static class Run {
+		public final String experiment;
+		public final String repository;
+		public int commits;
+		public long parses;
+		public long parseNanos;
+		public long millis;
+		public long liveHeap;
+		public long gcMillis;
+		public long gcCount;
+
+		public Run(String experiment, String repository) {
+			this.experiment = experiment;
+			this.repository = repository;
+		}
+
+		public double get(String metric) {
+			double seconds = Math.max(millis, 1) / 1000d;
+			switch (metric) {
+			case "commitsPerSecond":
+				return commits / seconds;
+			case "parsesPerSecond":
+				return parses / (Math.max(parseNanos, 1) / 1000000000d);
+			case "liveHeapMB":
+				return liveHeap / (1024d * 1024d);
+			case "gcMillis":
+				return gcMillis;
+			default:
+				throw new IllegalArgumentException("unknown metric: " + metric);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			String name = index < 0 ? arg : arg.substring(0, index);
+			String value = index < 0 ? "" : arg.substring(index + 1);
+			switch (name) {
+			case "record":
+				recordBudgets = true;
+				break;
+			case "check":
+				recordBudgets = false;
+				break;
+			case "sizes":
+				sizes = value.isEmpty() ? new int[0]
+						: Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+				break;
+			case "budgets":
+				budgetsFile = value;
+				break;
+			case "results":
+				resultsFile = value;
+				break;
+			case "threads":
+				threads = Integer.parseInt(value);
+				break;
+			default:
+				if (!BlobStore.setOption(name, value)) {
+					System.out.println("Unknown argument " + arg + ", expected record, check, sizes, budgets, results,"
+							+ " threads or a BlobStore setting (e.g. record sizes=1000,10000)");
+					System.exit(1);
+				}
+			}
+		}
+		BlobStore.configure();
+		AssertExperiment.threads = threads;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Run> runs = new ArrayList<>();
+			for (int size : sizes) {
+				String name = "generated-" + size + "-f" + files + "-m" + maxMethods + "-v" + GENERATOR_VERSION;
+				System.out.println("Generating repository " + name + " ... ");
+				try (Git git = generateRepository(name, size)) {
+					runs.addAll(benchmark(name, git, executor));
+				}
+			}
+			for (String repo : fixtures) {
+				System.out.println("Cloning repository " + repo + " ... ");
+				try (Git git = AssertExperiment.cloneGitRepository(repo)) {
+					runs.addAll(benchmark(repo, git, executor));
+				}
+			}
+			writeResults(runs);
+			if (recordBudgets) {
+				writeBudgets(runs);
+			} else if (!checkBudgets(runs)) {
+				System.exit(1);
+			}
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Run each experiment on a given repository.
+	 *
+	 * @param name
+	 * @param git
+	 * @param executor
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Run> benchmark(String name, Git git, ExecutorService executor) throws Exception {
+		ArrayList<Run> runs = new ArrayList<>();
+		runs.add(measure("assert", name, git, executor, (n, g, e) -> {
+			AssertExperiment.Results results = new AssertExperiment.Results();
+			AssertExperiment.runExperiment(n, g, e, results);
+			return results.commits + results.fixCommits;
+		}));
+		runs.add(measure("loop", name, git, executor, (n, g, e) -> {
+			// This only considers the source files at HEAD
+			LoopExtractor.runExperiment(n, g, new LoopExtractor.Results());
+			return 0;
+		}));
+		return runs;
+	}
+
+	/**
+	 * Run a given experiment on a given repository, measuring its throughput,
+	 * peak live heap and time spent in garbage collection. The live heap is
+	 * the heap in use immediately after each collection during the run, and
+	 * after a full collection at its end (which accounts for whatever the run
+	 * retains). The number of parses includes files only scanned by
+	 * MethodScanner, and their throughput is measured against the time spent
+	 * parsing (summed over all threads) rather than the duration of the run.
+	 *
+	 * @param experiment
+	 * @param name
+	 * @param git
+	 * @param executor
+	 * @param body
+	 * @return
+	 * @throws Exception
+	 */
+	private static Run measure(String experiment, String name, Git git, ExecutorService executor, Experiment body)
+			throws Exception {
+		Run run = new Run(experiment, name);
+		BlobStore.of(git.getRepository()).close();
+		System.gc();
+		HashSet<String> heapPools = new HashSet<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool.getName());
+			}
+		}
+		AtomicLong liveHeap = new AtomicLong();
+		NotificationListener listener = (notification, handback) -> {
+			if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+				GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+						.getGcInfo();
+				long used = 0;
+				for (Map.Entry<String, MemoryUsage> entry : info.getMemoryUsageAfterGc().entrySet()) {
+					if (heapPools.contains(entry.getKey())) {
+						used += entry.getValue().getUsed();
+					}
+				}
+				liveHeap.accumulateAndGet(used, Math::max);
+			}
+		};
+		long gcMillis = 0, gcCount = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcMillis -= gc.getCollectionTime();
+			gcCount -= gc.getCollectionCount();
+			((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+		}
+		long parses = AssertExperiment.parses.get();
+		long parseNanos = AssertExperiment.parseNanos.get();
+		long start = System.currentTimeMillis();
+		run.commits = body.run(name, git, executor);
+		run.millis = System.currentTimeMillis() - start;
+		run.parses = AssertExperiment.parses.get() - parses;
+		run.parseNanos = AssertExperiment.parseNanos.get() - parseNanos;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcMillis += gc.getCollectionTime();
+			gcCount += gc.getCollectionCount();
+		}
+		run.gcMillis = gcMillis;
+		run.gcCount = gcCount;
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+				used += pool.getCollectionUsage().getUsed();
+			}
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			((NotificationEmitter) gc).removeNotificationListener(listener);
+		}
+		run.liveHeap = Math.max(liveHeap.get(), used);
+		BlobStore.of(git.getRepository()).close();
+		System.out.println("Finished " + experiment + " on " + name + " (" + run.millis + "ms): "
+				+ Math.round(run.get("commitsPerSecond")) + " commit(s)/s, " + Math.round(run.get("parsesPerSecond"))
+				+ " parse(s)/s, " + Math.round(run.get("liveHeapMB")) + "MB peak live heap, " + run.gcMillis + "ms in "
+				+ run.gcCount + " GC(s)");
+		return run;
+	}
+
+	/**
+	 * Generate a repository with a given number of commits, or reuse it if it
+	 * was generated before by the same version of the generator with the same
+	 * parameters (as determined by its name). The repository contains a fixed number of source
+	 * files, spread across ten packages. After the initial commit, each commit
+	 * changes a single method in a single file (or adds a method to it), and
+	 * roughly a third of the commits are "fixes". Methods variously contain
+	 * asserts, loops and thrown exceptions, so that each experiment has
+	 * methods of interest to find.
+	 *
+	 * Objects are inserted as loose objects, and each batch of commits is then
+	 * packed by a garbage collection once master points to it (since only
+	 * reachable objects are packed).
+	 *
+	 * @param name
+	 * @param commits
+	 * @return
+	 * @throws IOException
+	 * @throws GitAPIException
+	 */
+	private static Git generateRepository(String name, int commits) throws IOException, GitAPIException {
+		File directory = new File(fixtureDirectory, name + ".git");
+		if (directory.exists()) {
+			Git git = Git.open(directory);
+			if (git.getRepository().resolve(Constants.HEAD) != null) {
+				return git;
+			}
+			git.close();
+			FileUtils.delete(directory, FileUtils.RECURSIVE);
+		}
+		// Generate into a temporary directory, so that an incomplete
+		// repository is never reused.
+		File tmpdir = new File(fixtureDirectory, name + ".tmp");
+		if (tmpdir.exists()) {
+			FileUtils.delete(tmpdir, FileUtils.RECURSIVE);
+		}
+		try (Git git = Git.init().setBare(true).setDirectory(tmpdir).call()) {
+			Repository repository = git.getRepository();
+			Random random = new Random(commits);
+			int[][] versions = new int[files][];
+			ObjectId[] blobs = new ObjectId[files];
+			ObjectId[] packages = new ObjectId[10];
+			ObjectId head = null;
+			for (int i = 0; i < commits; i += batchSize) {
+				try (ObjectInserter inserter = repository.newObjectInserter()) {
+					for (int j = i; j < commits && j < i + batchSize; ++j) {
+						String message;
+						int changed = -1;
+						if (j == 0) {
+							for (int f = 0; f != files; ++f) {
+								versions[f] = new int[1 + random.nextInt(maxMethods / 2)];
+								blobs[f] = inserter.insert(Constants.OBJ_BLOB, render(f, versions[f]));
+							}
+							message = "Initial commit";
+						} else {
+							int f = random.nextInt(files);
+							int m = random.nextInt(versions[f].length);
+							if (versions[f].length < maxMethods && random.nextInt(20) == 0) {
+								versions[f] = Arrays.copyOf(versions[f], versions[f].length + 1);
+								m = versions[f].length - 1;
+								message = "Add Class" + f + ".method" + m;
+							} else {
+								versions[f][m]++;
+								message = (random.nextInt(3) == 0 ? "Fix bug in Class" : "Update Class") + f + ".method"
+										+ m;
+							}
+							blobs[f] = inserter.insert(Constants.OBJ_BLOB, render(f, versions[f]));
+							changed = f % 10;
+						}
+						CommitBuilder builder = new CommitBuilder();
+						builder.setTreeId(insertTrees(blobs, packages, changed, inserter));
+						if (head != null) {
+							builder.setParentId(head);
+						}
+						PersonIdent ident = new PersonIdent("Generator", "generator@example.com",
+								1000000000000L + j * 60000L, 0);
+						builder.setAuthor(ident);
+						builder.setCommitter(ident);
+						builder.setMessage(message);
+						head = inserter.insert(builder);
+					}
+					inserter.flush();
+				}
+				RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+				update.setNewObjectId(head);
+				RefUpdate.Result result = update.forceUpdate();
+				if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED
+						&& result != RefUpdate.Result.FAST_FORWARD) {
+					throw new IOException("failed to update master (" + result + ")");
+				}
+				git.gc().call();
+			}
+		}
+		if (!tmpdir.renameTo(directory)) {
+			throw new IOException("failed to rename " + tmpdir + " to " + directory);
+		}
+		return Git.open(directory);
+	}
+
+	/**
+	 * Render a given generated source file. Each method is determined by its
+	 * index and version.
+	 *
+	 * @param f
+	 * @param versions
+	 * @return
+	 */
+	private static byte[] render(int f, int[] versions) {
+		StringBuilder out = new StringBuilder();
+		out.append("package generated.p" + (f % 10) + ";\n\n");
+		out.append("public class Class" + f + " {\n");
+		for (int m = 0; m != versions.length; ++m) {
+			int v = versions[m] + m;
+			out.append("\n\tpublic int method" + m + "(int x) {\n");
+			out.append("\t\tint y = x + " + versions[m] + ";\n");
+			if ((v & 1) != 0) {
+				out.append("\t\tassert y >= x;\n");
+			}
+			if ((v & 2) != 0) {
+				out.append("\t\twhile (y > 100) {\n\t\t\ty = y / 2;\n\t\t}\n");
+			}
+			if ((v & 4) != 0) {
+				out.append("\t\tfor (int i = 0; i < " + (v % 10) + "; ++i) {\n\t\t\ty += i;\n\t\t}\n");
+			}
+			if ((v & 8) != 0) {
+				out.append("\t\tif (y < 0) {\n\t\t\tthrow new IllegalArgumentException(\"negative\");\n\t\t}\n");
+			}
+			out.append("\t\treturn y;\n\t}\n");
+		}
+		out.append("}\n");
+		return out.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Insert the trees for a given set of generated source files, returning
+	 * the root tree. The layout is <code>src/generated/pN/ClassF.java</code>.
+	 * Only the tree for the package which changed is inserted again, since the
+	 * others are unchanged.
+	 *
+	 * @param blobs
+	 * @param packages
+	 *            The tree of each package, which are updated.
+	 * @param changed
+	 *            The package which changed, or -1 if all did.
+	 * @param inserter
+	 * @return
+	 * @throws IOException
+	 */
+	private static ObjectId insertTrees(ObjectId[] blobs, ObjectId[] packages, int changed, ObjectInserter inserter)
+			throws IOException {
+		TreeFormatter generated = new TreeFormatter();
+		for (int p = 0; p != 10; ++p) {
+			if (changed >= 0 && p != changed) {
+				generated.append("p" + p, FileMode.TREE, packages[p]);
+				continue;
+			}
+			// Entries must be in name order
+			ArrayList<String> names = new ArrayList<>();
+			for (int f = p; f < blobs.length; f += 10) {
+				names.add("Class" + f + ".java");
+			}
+			names.sort(null);
+			TreeFormatter pkg = new TreeFormatter();
+			for (String name : names) {
+				int f = Integer.parseInt(name.substring(5, name.length() - 5));
+				pkg.append(name, FileMode.REGULAR_FILE, blobs[f]);
+			}
+			packages[p] = inserter.insert(pkg);
+			generated.append("p" + p, FileMode.TREE, packages[p]);
+		}
+		TreeFormatter src = new TreeFormatter();
+		src.append("generated", FileMode.TREE, inserter.insert(generated));
+		TreeFormatter root = new TreeFormatter();
+		root.append("src", FileMode.TREE, inserter.insert(src));
+		return inserter.insert(root);
+	}
+
+	/**
+	 * Append the given runs to the results file, one JSON object per line.
+	 * Each is labelled with the revision of the tools (when run from within
+	 * their repository) and the time of the run.
+	 *
+	 * @param runs
+	 * @throws IOException
+	 */
+	private static void writeResults(List<Run> runs) throws IOException {
+		String revision = "unknown";
+		FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(new File("").getAbsoluteFile());
+		if (builder.getGitDir() != null) {
+			try (Repository repository = builder.build()) {
+				ObjectId head = repository.resolve(Constants.HEAD);
+				revision = head == null ? revision : head.name();
+			}
+		}
+		String timestamp = Instant.now().toString();
+		long maxHeap = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+		try (PrintWriter out = new PrintWriter(new FileWriter(resultsFile, true))) {
+			for (Run run : runs) {
+				StringBuilder line = new StringBuilder();
+				line.append("{\"revision\":" + quote(revision));
+				line.append(",\"timestamp\":" + quote(timestamp));
+				line.append(",\"experiment\":" + quote(run.experiment));
+				line.append(",\"repository\":" + quote(run.repository));
+				line.append(",\"threads\":" + threads);
+				line.append(",\"maxHeapMB\":" + maxHeap);
+				line.append(",\"commits\":" + run.commits);
+				line.append(",\"parses\":" + run.parses);
+				line.append(",\"parseMillis\":" + run.parseNanos / 1000000);
+				line.append(",\"millis\":" + run.millis);
+				line.append(",\"gcCount\":" + run.gcCount);
+				for (String metric : METRICS) {
+					line.append(",\"" + metric + "\":" + Math.round(run.get(metric) * 100) / 100d);
+				}
+				line.append("}");
+				out.println(line);
+			}
+		}
+		System.out.println("Appended " + runs.size() + " result(s) to " + resultsFile);
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Check the given runs against the budgets file, reporting every budget
+	 * exceeded and every run without a budget.
+	 *
+	 * @param runs
+	 * @return True if every run has a budget and no budget was exceeded.
+	 * @throws IOException
+	 */
+	private static boolean checkBudgets(List<Run> runs) throws IOException {
+		File file = new File(budgetsFile);
+		if (!file.exists()) {
+			System.out.println("No budgets found (" + budgetsFile + "), run with record to record them");
+			return false;
+		}
+		int checked = 0, exceeded = 0;
+		HashSet<Run> budgeted = new HashSet<>();
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		for (int i = 0; i != lines.size(); ++i) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			if (fields.length != 4 || !Arrays.asList(METRICS).contains(fields[2])) {
+				throw new IllegalArgumentException("invalid budget on line " + (i + 1) + ": " + line);
+			}
+			double limit = Double.parseDouble(fields[3]);
+			boolean minimum = fields[2].endsWith("PerSecond");
+			for (Run run : runs) {
+				if (run.experiment.equals(fields[0]) && run.repository.equals(fields[1])) {
+					double value = run.get(fields[2]);
+					budgeted.add(run);
+					checked++;
+					if (minimum ? value < limit : value > limit) {
+						exceeded++;
+						System.out.println("Budget exceeded for " + run.experiment + " on " + run.repository + ": "
+								+ fields[2] + " was " + Math.round(value * 100) / 100d + " (" + (minimum ? "minimum" : "maximum")
+								+ " " + limit + ")");
+					}
+				}
+			}
+		}
+		int missing = 0;
+		for (Run run : runs) {
+			if (!budgeted.contains(run)) {
+				missing++;
+				System.out.println("No budget for " + run.experiment + " on " + run.repository);
+			}
+		}
+		System.out.println("Checked " + checked + " budget(s), " + exceeded + " exceeded, " + missing
+				+ " run(s) without a budget");
+		return exceeded == 0 && missing == 0;
+	}
+
+	/**
+	 * Overwrite the budgets file with budgets derived from the given runs,
+	 * relaxed by the slack factor. Garbage collection budgets are at least one
+	 * second, since short runs may not collect at all. Likewise, live heap
+	 * budgets are at least 32MB, since small live heaps vary with when
+	 * collections happen to occur. The number of threads and maximum heap are
+	 * noted, since the budgets only hold for a similar setup.
+	 *
+	 * @param runs
+	 * @throws IOException
+	 */
+	private static void writeBudgets(List<Run> runs) throws IOException {
+		try (PrintWriter out = new PrintWriter(new FileWriter(budgetsFile))) {
+			out.println("# experiment repository metric limit");
+			out.println("# recorded with " + threads + " thread(s) and a maximum heap of "
+					+ Runtime.getRuntime().maxMemory() / (1024 * 1024) + "MB");
+			for (Run run : runs) {
+				for (String metric : METRICS) {
+					double value = run.get(metric);
+					if (metric.equals("commitsPerSecond") && run.commits == 0) {
+						continue;
+					} else if (metric.endsWith("PerSecond")) {
+						value = value / slack;
+					} else if (metric.equals("gcMillis")) {
+						value = Math.max(value * slack, 1000);
+					} else if (metric.equals("liveHeapMB")) {
+						value = Math.max(value * slack, 32);
+					}
+					out.println(run.experiment + " " + run.repository + " " + metric + " " + Math.round(value * 100) / 100d);
+				}
+			}
+		}
+		System.out.println("Recorded budgets for " + runs.size() + " run(s) in " + budgetsFile);
+	}
+}
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ast.CompilationUnit;
+
+/**
+ * Measures how the proportion of "methods of interest" (as determined by
+ * <code>AssertExperiment</code>) changes over the history of a repository.
+ * Snapshots are taken along the first-parent history from the initial commit
+ * to HEAD, either every so many commits or once per month.
+ *
+ * Rather than re-parsing every source file at every snapshot, this walks the
+ * tree difference between consecutive snapshots. Only blobs which have not
+ * been seen before are parsed, whilst the counts for all other files are
+ * carried forward. Thus, the cost of each step is proportional to the churn
+ * between snapshots rather than the size of the tree.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SnapshotExperiment {
+
+	private static String[] repositories = {
+			//"file:///Users/djp/projects/Jasm/",
+			"file:///Users/djp/projects/Whiley/"
+			};
+
+	/**
+	 * The number of first-parent commits between consecutive snapshots. This
+	 * is ignored when taking monthly snapshots.
+	 */
+	private static int interval = 100;
+
+	/**
+	 * When set, take a snapshot at the last commit of each calendar month
+	 * instead of every <code>interval</code> commits.
+	 */
+	private static boolean monthly = false;
+
+	/**
+	 * The number of worker threads used for parsing source files.
+	 */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The method counts for a single blob. Since blobs are immutable, these
+	 * can be reused for every snapshot (and path) which contains the blob.
+	 */
+	private static class Counts {
+		/**
+		 * Number of methods declared in the blob.
+		 */
+		public final int methods;
+		/**
+		 * Number of methods of interest declared in the blob.
+		 */
+		public final int methodsOfInterest;
+		/**
+		 * Indicates whether or not the blob could be parsed. Blobs which
+		 * cannot be parsed are treated as having no methods.
+		 */
+		public final boolean parsed;
+
+		public Counts(int methods, int methodsOfInterest, boolean parsed) {
+			this.methods = methods;
+			this.methodsOfInterest = methodsOfInterest;
+			this.parsed = parsed;
+		}
+	}
+
+	/**
+	 * The running state carried forward from one snapshot to the next.
+	 */
+	private static class State {
+		/**
+		 * Maps each Java source file in the current snapshot to its blob.
+		 */
+		public final HashMap<String, ObjectId> files = new HashMap<>();
+		/**
+		 * Maps every blob seen so far to its counts.
+		 */
+		public final HashMap<ObjectId, Counts> cache = new HashMap<>();
+		/**
+		 * The tree of the previous snapshot, or null if none.
+		 */
+		public RevTree tree;
+		/**
+		 * Total number of methods in the current snapshot.
+		 */
+		public int methods;
+		/**
+		 * Total number of methods of interest in the current snapshot.
+		 */
+		public int methodsOfInterest;
+		/**
+		 * Number of files in the current snapshot which could not be parsed.
+		 */
+		public int unparsed;
+
+		public void add(Counts counts) {
+			methods += counts.methods;
+			methodsOfInterest += counts.methodsOfInterest;
+			unparsed += counts.parsed ? 0 : 1;
+		}
+
+		public void remove(Counts counts) {
+			methods -= counts.methods;
+			methodsOfInterest -= counts.methodsOfInterest;
+			unparsed -= counts.parsed ? 0 : 1;
+		}
+	}
+
+	public static void main(String[] args) {
+		BlobStore.configure();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (String repo : repositories) {
+				long start = System.currentTimeMillis();
+				System.out.println("Cloning repository " + repo + " ... ");
+				Git git = AssertExperiment.cloneGitRepository(repo);
+				System.out.println("Selecting snapshots from " + repo + " ... ");
+				List<RevCommit> snapshots = selectSnapshots(git);
+				System.out.println("Analysing " + snapshots.size() + " snapshot(s) from " + repo + " ... ");
+				State state = new State();
+				for (RevCommit snapshot : snapshots) {
+					int parsed = advance(snapshot, state, git, executor);
+					double ratio = AssertExperiment.ratio(state.methodsOfInterest, state.methods);
+					System.out.println(snapshot.abbreviate(7).name() + " " + snapshot.getCommitterIdent().getWhen() + " : "
+							+ state.methods + " method(s), " + state.methodsOfInterest + " of interest (" + ratio
+							+ "%), " + state.unparsed + " unparseable file(s), " + parsed + " blob(s) parsed");
+				}
+				long end = System.currentTimeMillis();
+				System.out.println("Finished " + repo + " (" + (end - start) + "ms)");
+				System.out.println("Object access: " + BlobStore.of(git.getRepository()).getStatistics());
+			}
+		} catch (Exception e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Select the commits at which snapshots are taken. This follows the
+	 * first-parent history from HEAD, and returns the selected commits oldest
+	 * first. HEAD itself is always selected.
+	 *
+	 * @param git
+	 * @return
+	 * @throws IOException
+	 */
+	private static List<RevCommit> selectSnapshots(Git git) throws IOException {
+		Repository repository = git.getRepository();
+		ArrayList<RevCommit> history = new ArrayList<>();
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			RevCommit commit = revWalk.parseCommit(repository.resolve(Constants.HEAD));
+			while (commit != null) {
+				history.add(commit);
+				commit = commit.getParentCount() == 0 ? null : revWalk.parseCommit(commit.getParent(0));
+			}
+		}
+		Collections.reverse(history);
+		//
+		ArrayList<RevCommit> snapshots = new ArrayList<>();
+		for (int i = 0; i != history.size(); ++i) {
+			RevCommit commit = history.get(i);
+			boolean last = (i + 1) == history.size();
+			if (last || (monthly ? !sameMonth(commit, history.get(i + 1)) : (i % interval) == 0)) {
+				snapshots.add(commit);
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Check whether two commits were committed in the same calendar month.
+	 * Commit times are used rather than author times, since the latter are
+	 * not monotonic along the first-parent history (e.g. after a rebase or
+	 * cherry-pick), which would give several snapshots for one month.
+	 *
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	private static boolean sameMonth(RevCommit first, RevCommit second) {
+		Calendar c1 = Calendar.getInstance();
+		c1.setTimeInMillis(first.getCommitTime() * 1000L);
+		Calendar c2 = Calendar.getInstance();
+		c2.setTimeInMillis(second.getCommitTime() * 1000L);
+		return c1.get(Calendar.YEAR) == c2.get(Calendar.YEAR) && c1.get(Calendar.MONTH) == c2.get(Calendar.MONTH);
+	}
+
+	/**
+	 * Advance the running state from the previous snapshot to the given one.
+	 * This diffs the two trees, parses any blobs not seen before and then
+	 * updates the totals for the files which were added, modified or deleted.
+	 *
+	 * @param snapshot
+	 * @param state
+	 * @param git
+	 * @param executor
+	 * @return The number of blobs which were parsed
+	 * @throws IOException
+	 */
+	private static int advance(RevCommit snapshot, State state, Git git, ExecutorService executor)
+			throws IOException {
+		Repository repository = git.getRepository();
+		List<DiffEntry> diffs = extractDiffs(state.tree, snapshot.getTree(), repository);
+		// Determine which blobs have not been seen before
+		HashSet<ObjectId> unseen = new HashSet<>();
+		for (DiffEntry diff : diffs) {
+			if (diff.getChangeType() != DiffEntry.ChangeType.DELETE) {
+				ObjectId id = diff.getNewId().toObjectId();
+				if (!state.cache.containsKey(id)) {
+					unseen.add(id);
+				}
+			}
+		}
+		ArrayList<ObjectId> blobs = new ArrayList<>(unseen);
+		// Parse them
+		List<Counts> counts = countMethods(blobs, repository, executor).join();
+		for (int i = 0; i != blobs.size(); ++i) {
+			state.cache.put(blobs.get(i), counts.get(i));
+		}
+		// Update the running totals
+		for (DiffEntry diff : diffs) {
+			if (diff.getChangeType() == DiffEntry.ChangeType.DELETE) {
+				state.remove(state.cache.get(state.files.remove(diff.getOldPath())));
+			} else {
+				if (diff.getChangeType() == DiffEntry.ChangeType.MODIFY) {
+					state.remove(state.cache.get(state.files.get(diff.getOldPath())));
+				}
+				ObjectId id = diff.getNewId().toObjectId();
+				state.files.put(diff.getNewPath(), id);
+				state.add(state.cache.get(id));
+			}
+		}
+		state.tree = snapshot.getTree();
+		return blobs.size();
+	}
+
+	/**
+	 * Extract the differences between the Java source files of two trees. The
+	 * previous tree may be null, in which case every file is considered to be
+	 * added. Since no rename detection is performed, files which are moved
+	 * appear as a delete followed by an add.
+	 *
+	 * @param previous
+	 * @param current
+	 * @param repository
+	 * @return
+	 * @throws IOException
+	 */
+	private static List<DiffEntry> extractDiffs(RevTree previous, RevTree current, Repository repository)
+			throws IOException {
+		try (ObjectReader reader = repository.newObjectReader(); TreeWalk treeWalk = new TreeWalk(reader)) {
+			if (previous == null) {
+				treeWalk.addTree(new EmptyTreeIterator());
+			} else {
+				CanonicalTreeParser oldTreeIter = new CanonicalTreeParser();
+				oldTreeIter.reset(reader, previous.getId());
+				treeWalk.addTree(oldTreeIter);
+			}
+			CanonicalTreeParser newTreeIter = new CanonicalTreeParser();
+			newTreeIter.reset(reader, current.getId());
+			treeWalk.addTree(newTreeIter);
+			treeWalk.setRecursive(true);
+			// Unchanged subtrees are skipped without being read
+			treeWalk.setFilter(AndTreeFilter.create(PathSuffixFilter.create(".java"), TreeFilter.ANY_DIFF));
+			return DiffEntry.scan(treeWalk);
+		}
+	}
+
+	/**
+	 * Count the methods in each of a given list of blobs. This is done in
+	 * parallel in the same fashion as the HEAD scan of
+	 * <code>AssertExperiment</code>. The counts are returned in the same order
+	 * as the blobs.
+	 *
+	 * @param blobs
+	 * @param repository
+	 * @param executor
+	 * @return
+	 */
+	private static CompletableFuture<List<Counts>> countMethods(List<ObjectId> blobs, Repository repository,
+			ExecutorService executor) {
+		return AssertExperiment.parallelMap(blobs, repository, executor, threads, SnapshotExperiment::countMethods);
+	}
+
+	/**
+	 * Count the methods (and methods of interest) in a single blob. Historical
+	 * revisions may well contain files which cannot be parsed, and these are
+	 * simply recorded as such.
+	 *
+	 * @param blob
+	 * @param parser
+	 * @return
+	 */
+	private static Counts countMethods(BlobStore.Blob blob, JavaParser parser) {
+		CompilationUnit cu;
+		try {
+			cu = AssertExperiment.parseCompilationUnit(blob, parser);
+		} catch (ParseProblemException e) {
+			return new Counts(0, 0, false);
+		}
+		AssertExperiment.Counts counts = AssertExperiment.countMethods(cu);
+		return new Counts(counts.methods, counts.methodsOfInterest, true);
+	}
+}